@@ -22,6 +22,7 @@ import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 import model.COD;
+import model.ShortestPaths;
 import model.VAction;
 import model.VDeliveryAction;
 import model.VPickupAction;
@@ -33,6 +34,7 @@ public class AuctionAgent implements AuctionBehavior {
 	private Topology topology;
 	private TaskDistribution distribution;
 	private Agent agent;
+	private ShortestPaths paths;
 	private long timeout_bid;
 	private long timeout_plan;
 	private boolean isPlan = false;
@@ -56,6 +58,7 @@ public class AuctionAgent implements AuctionBehavior {
 	public void setup(Topology topology, TaskDistribution distribution, Agent agent) {
 		this.topology = topology;
 		this.distribution = distribution;
+		paths = new ShortestPaths(topology);
 		this.agent = agent;
 		listOfVehicles = agent.vehicles();
 		listOfTasks = new ArrayList<Task>();
@@ -203,7 +206,7 @@ public class AuctionAgent implements AuctionBehavior {
 			City currentCity = v.homeCity();
 			for (VAction va : newPlan.linkedVehicleTasks.get(v)) {
 				if (!currentCity.equals(va.getCity())) {
-					sum += currentCity.distanceTo(va.getCity()) * v.costPerKm();
+					sum += paths.distance(currentCity, va.getCity()) * v.costPerKm();
 					createMoves(currentCity, va.getCity(), p);
 				}
 
@@ -217,7 +220,8 @@ public class AuctionAgent implements AuctionBehavior {
 	}
 
 	private void createMoves(City source, City destination, Plan p) {
-		for (City city : source.pathTo(destination)) {
+		for (City city = source; !city.equals(destination);) {
+			city = paths.nextHop(city, destination);
 			p.appendMove(city);
 		}
 	}
@@ -407,7 +411,7 @@ public class AuctionAgent implements AuctionBehavior {
 			City currentCity = v.homeCity();
 			for (VAction va : cod.linkedVehicleTasks.get(v)) {
 				if (!currentCity.equals(va.getCity())) {
-					sum += currentCity.distanceTo(va.getCity()) * v.costPerKm();
+					sum += paths.distance(currentCity, va.getCity()) * v.costPerKm();
 				}
 				currentCity = va.getCity();
 			}
@@ -23,6 +23,7 @@ import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 import model.COD;
+import model.ShortestPaths;
 import model.VAction;
 import model.VDeliveryAction;
 import model.VPickupAction;
@@ -33,6 +34,7 @@ public class AuctionAgentOpt implements AuctionBehavior {
 	private List<Task> listOfTasks;
 	private TaskDistribution distribution;
 	private Agent agent;
+	private ShortestPaths paths;
 	private long timeout_bid;
 	private long timeout_plan;
 	private boolean isPlan = false;
@@ -62,6 +64,7 @@ public class AuctionAgentOpt implements AuctionBehavior {
 	@Override
 	public void setup(Topology topology, TaskDistribution distribution, Agent agent) {
 		this.distribution = distribution;
+		paths = new ShortestPaths(topology);
 		this.agent = agent;
 		listOfVehicles = agent.vehicles();
 		listOfTasks = new ArrayList<Task>();
@@ -243,8 +246,10 @@ public class AuctionAgentOpt implements AuctionBehavior {
 
 		// compute percentage of chance of getting a task on the way
 		double perc = 0;
-		for (City from : p.pathTo(d)) {
-			for (City onTheWay : from.pathTo(d)) {
+		for (City from = p; !from.equals(d);) {
+			from = paths.nextHop(from, d);
+			for (City onTheWay = from; !onTheWay.equals(d);) {
+				onTheWay = paths.nextHop(onTheWay, d);
 				perc += distribution.probability(from, onTheWay);
 			}
 		}
@@ -323,7 +328,8 @@ public class AuctionAgentOpt implements AuctionBehavior {
 	}
 
 	private void createMoves(City source, City destination, Plan p) {
-		for (City city : source.pathTo(destination)) {
+		for (City city = source; !city.equals(destination);) {
+			city = paths.nextHop(city, destination);
 			p.appendMove(city);
 		}
 	}
@@ -513,7 +519,7 @@ public class AuctionAgentOpt implements AuctionBehavior {
 			City currentCity = v.homeCity();
 			for (VAction va : cod.linkedVehicleTasks.get(v)) {
 				if (!currentCity.equals(va.getCity())) {
-					sum += currentCity.distanceTo(va.getCity()) * v.costPerKm();
+					sum += paths.distance(currentCity, va.getCity()) * v.costPerKm();
 				}
 				currentCity = va.getCity();
 			}
@@ -21,6 +21,7 @@ import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
 import model.COD;
+import model.ShortestPaths;
 import model.VAction;
 import model.VDeliveryAction;
 import model.VPickupAction;
@@ -34,6 +35,7 @@ public class CentralizedAgent implements CentralizedBehavior {
 	private Topology topology;
 	private TaskDistribution distribution;
 	private Agent agent;
+	private ShortestPaths paths;
 	private long timeout_setup;
 	private long timeout_plan;
 
@@ -56,6 +58,7 @@ public class CentralizedAgent implements CentralizedBehavior {
 
 		this.topology = topology;
 		this.distribution = distribution;
+		paths = new ShortestPaths(topology);
 		this.agent = agent;
 	}
 
@@ -74,7 +77,7 @@ public class CentralizedAgent implements CentralizedBehavior {
 			City currentCity = v.homeCity();
 			for (VAction va : bestSolution.linkedVehicleTasks.get(v)) {
 				if (!currentCity.equals(va.getCity())) {
-					sum += currentCity.distanceTo(va.getCity()) * v.costPerKm();
+					sum += paths.distance(currentCity, va.getCity()) * v.costPerKm();
 					createMoves(currentCity, va.getCity(), p);
 				}
 
@@ -88,7 +91,8 @@ public class CentralizedAgent implements CentralizedBehavior {
 	}
 
 	private void createMoves(City source, City destination, Plan p) {
-		for (City city : source.pathTo(destination)) {
+		for (City city = source; !city.equals(destination);) {
+			city = paths.nextHop(city, destination);
 			p.appendMove(city);
 		}
 	}
@@ -397,7 +401,7 @@ public class CentralizedAgent implements CentralizedBehavior {
 			City currentCity = v.homeCity();
 			for (VAction va : cod.linkedVehicleTasks.get(v)) {
 				if (!currentCity.equals(va.getCity())) {
-					sum += currentCity.distanceTo(va.getCity()) * v.costPerKm();
+					sum += paths.distance(currentCity, va.getCity()) * v.costPerKm();
 				}
 				currentCity = va.getCity();
 			}
@@ -0,0 +1,76 @@
+package model;
+
+import java.util.List;
+
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Shortest path distance and next hop between every pair of cities, indexed
+ * by city id and built once at setup. Following the next hops gives the same
+ * moves as City.pathTo.
+ */
+public class ShortestPaths {
+	private City[] cities;
+	private double[][] distance;
+	// the id of the city after "from" on the path to "to", "to" if from == to
+	private int[][] nextHop;
+
+	public ShortestPaths(Topology topology) {
+		super();
+		cities = new City[topology.size()];
+		for (City city : topology.cities()) {
+			cities[city.id] = city;
+		}
+
+		distance = new double[cities.length][cities.length];
+		nextHop = new int[cities.length][cities.length];
+		for (int from = 0; from < cities.length; from++) {
+			for (int to = 0; to < cities.length; to++) {
+				if (from == to) {
+					nextHop[from][to] = to;
+				} else {
+					distance[from][to] = cities[from].distanceTo(cities[to]);
+					List<City> path = cities[from].pathTo(cities[to]);
+					nextHop[from][to] = path.get(0).id;
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return cities.length;
+	}
+
+	public City getCity(int id) {
+		return cities[id];
+	}
+
+	/**
+	 * @return the length of the shortest path between the cities with ids
+	 *         from and to
+	 */
+	public double distance(int from, int to) {
+		return distance[from][to];
+	}
+
+	public double distance(City from, City to) {
+		return distance[from.id][to.id];
+	}
+
+	/**
+	 * @return the id of the city after from on the shortest path to to, to if
+	 *         from == to
+	 */
+	public int nextHop(int from, int to) {
+		return nextHop[from][to];
+	}
+
+	/**
+	 * @return the city after from on the shortest path to to, to if from ==
+	 *         to
+	 */
+	public City nextHop(City from, City to) {
+		return cities[nextHop[from.id][to.id]];
+	}
+}
@@ -1,11 +1,20 @@
 package agents;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
+import logist.LogistSettings;
 import logist.agent.Agent;
 import logist.behavior.DeliberativeBehavior;
+import logist.config.Parsers;
 import logist.plan.Action;
 import logist.plan.Action.Delivery;
 import logist.plan.Action.Move;
@@ -17,17 +26,35 @@ import logist.task.TaskDistribution;
 import logist.task.TaskSet;
 import logist.topology.Topology;
 import logist.topology.Topology.City;
+import model.AnytimeSearch;
+import model.Heuristic;
+import model.MSTHeuristic;
+import model.MaxLegHeuristic;
+import model.ParallelAStar;
+import model.PlanArena;
+import model.ShortestPaths;
 import model.State;
+import model.TaskIndex;
+import model.ZeroHeuristic;
 
 public class DeliberativeAgent implements DeliberativeBehavior {
 
 	enum Algorithm {
-		BFS, ASTAR
+		BFS, ASTAR, PARALLEL_ASTAR, ANYTIME_ASTAR, BEAM
+	}
+
+	/**
+	 * the heuristics A* can use, see the classes implementing
+	 * model.Heuristic
+	 */
+	enum HeuristicType {
+		NONE, MAX_LEG, MST
 	}
 
 	/* Environment */
 	Topology topology;
 	TaskDistribution td;
+	ShortestPaths paths;
 
 	/* the properties of the agent */
 	Agent agent;
@@ -37,223 +64,525 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 
 	/* the planning class */
 	Algorithm algorithm;
+	Heuristic heuristic;
+	int maxStates;
+	int workers;
+
+	/* the anytime searches */
+	double[] weights;
+	int beamWidth;
+	long timeoutPlan;
+	boolean macroActions;
 
 	boolean isJumboTaskSet = false;
 
 	TaskSet pickedUpTasks = null;
 
+	/* the pickups and deliveries of the last plan, in order */
+	List<Task> previousTasks = new ArrayList<Task>();
+	List<Boolean> previousPickups = new ArrayList<Boolean>();
+	boolean planWasCancelled = false;
+
 	@Override
 	public void setup(Topology topology, TaskDistribution td, Agent agent) {
 
 		this.topology = topology;
 		this.td = td;
 		this.agent = agent;
+		paths = new ShortestPaths(topology);
 		costPerKm = agent.vehicles().get(0).costPerKm();
 
 		String algorithmName = agent.readProperty("algorithm", String.class, "ASTAR");
 		algorithm = Algorithm.valueOf(algorithmName.toUpperCase());
+
+		// Reads the number of configurations BFS may store before it stops
+		// looking for a better plan
+		maxStates = agent.readProperty("max-states", Integer.class, 1000000);
+		if (maxStates < 1) {
+			System.out.println("Please enter max-states >= 1");
+			System.exit(-1);
+		}
+
+		// Reads whether a transition also does the pickups and deliveries in
+		// its city that cannot make the plan worse, see State
+		macroActions = agent.readProperty("macro-actions", Boolean.class, true);
+
+		// Reads the number of threads used by PARALLEL_ASTAR
+		workers = agent.readProperty("workers", Integer.class, Runtime.getRuntime().availableProcessors());
+		if (workers < 1) {
+			System.out.println("Please enter a number of workers >= 1");
+			System.exit(-1);
+		}
+
+		// Reads the weights of the ANYTIME_ASTAR passes and the width of the
+		// first BEAM search
+		String[] weightNames = agent.readProperty("weights", String.class, "5,2,1.5,1.2,1").split(",");
+		weights = new double[weightNames.length];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = Double.parseDouble(weightNames[i].trim());
+			if (weights[i] < 1) {
+				System.out.println("Please enter weights >= 1");
+				System.exit(-1);
+			}
+		}
+		beamWidth = agent.readProperty("beam-width", Integer.class, 100);
+		if (beamWidth < 1) {
+			System.out.println("Please enter a beam-width >= 1");
+			System.exit(-1);
+		}
+
+		// the anytime searches stop before the plan timeout
+		LogistSettings ls = null;
+		try {
+			ls = Parsers.parseSettings("config/settings_default.xml");
+		} catch (Exception exc) {
+			System.out.println("There was a problem loading the configuration file.");
+		}
+		timeoutPlan = ls == null ? 300000 : ls.get(LogistSettings.TimeoutKey.PLAN);
+
+		String heuristicName = agent.readProperty("heuristic", String.class, "MST");
+		switch (HeuristicType.valueOf(heuristicName.toUpperCase())) {
+		case NONE:
+			heuristic = new ZeroHeuristic();
+			break;
+		case MAX_LEG:
+			heuristic = new MaxLegHeuristic();
+			break;
+		case MST:
+			heuristic = new MSTHeuristic();
+			break;
+		default:
+			throw new AssertionError("Should not happen.");
+		}
 	}
 
 	@Override
 	public Plan plan(Vehicle vehicle, TaskSet tasks) {
 		System.out.println("Agent " + (agent.id() + 1) + ": " + agent.name());
-		Plan plan;
+		State root = createRoot(vehicle, tasks);
+		State upperBound = createUpperBound(root);
+		State finalState;
 
 		switch (algorithm) {
 		case ASTAR:
-			plan = aStar(vehicle, tasks);
+			finalState = aStar(root, upperBound);
 			break;
 		case BFS:
-			plan = BFS(vehicle, tasks);
+			finalState = BFS(root, upperBound);
+			break;
+		case PARALLEL_ASTAR:
+			finalState = parallelAStar(root, upperBound);
+			break;
+		case ANYTIME_ASTAR:
+		case BEAM:
+			finalState = anytime(root, upperBound);
 			break;
 		default:
 			throw new AssertionError("Should not happen.");
 		}
-		return plan;
+		rememberPlan(finalState);
+		return new Plan(vehicle.getCurrentCity(), createReversePathFromState(finalState));
 	}
 
-	private Plan aStar(Vehicle vehicle, TaskSet tasks) {
-		List<State> open = new ArrayList<State>();
+	/**
+	 * @param root
+	 * @param upperBound
+	 *            the final state of a plan known in advance, only the states
+	 *            that can lead to a cheaper plan are searched
+	 * @return the final state of an optimal plan
+	 */
+	private State aStar(State root, State upperBound) {
+		long startTime = System.currentTimeMillis();
+		// binary heap on fcost: adding a state and removing the best one are
+		// both O(log n)
+		PriorityQueue<State> open = new PriorityQueue<State>(11, State.BY_FCOST);
+		// the lowest cost a configuration has been reached with so far and
+		// the configurations that have already been expanded
+		Map<State, Double> bestCost = new HashMap<State, Double>();
+		Set<State> closed = new HashSet<State>();
 		// add root
-		open.add(new State(tasks, vehicle.getCurrentTasks(), vehicle.getCurrentCity(), agent.getTotalCost(),
-		        vehicle.capacity(), new State(null, null, null, 0, 0, null)));
+		open.add(root);
+		bestCost.put(root, root.getCost());
 
 		State current;
 		int nbStates = 1;
 		State newNeighbor;
 
-		current = open.get(0);
-		open.remove(0);
+		current = open.poll();
 
-		while (!current.getAvailableTasks().isEmpty() || !current.getPickedUpTasks().isEmpty()) {
+		while (current != null && !current.isFinal()) {
+			closed.add(current);
 			// add new neighbor states
 
 			// pick up a new task if possible
-			for (Task t : current.getAvailableTasks()) {
-				newNeighbor = current.clone();
-				if (newNeighbor.pickUpTask(t)) {
+			for (int t = current.nextAvailableTask(0); t >= 0; t = current.nextAvailableTask(t + 1)) {
+				newNeighbor = current.pickUpTask(t);
+				if (newNeighbor != null && canImprove(newNeighbor, upperBound)
+				        && isImprovement(newNeighbor, bestCost)) {
+					// with an inconsistent heuristic a closed configuration
+					// can still be reached more cheaply and must be reopened
+					closed.remove(newNeighbor);
 					// task was picked up
-					newNeighbor.setParentState(current);
-					newNeighbor.setFcost(newNeighbor.getCost() + h(newNeighbor));
+					newNeighbor.setFcost(newNeighbor.getCost() + heuristic.estimate(newNeighbor));
 					open.add(newNeighbor);
 					nbStates++;
 				}
 			}
 
 			// deliver one of our picked up tasks
-			for (Task t : current.getPickedUpTasks()) {
-				newNeighbor = current.clone();
-				if (newNeighbor.deliverTask(t)) {
+			for (int t = current.nextPickedUpTask(0); t >= 0; t = current.nextPickedUpTask(t + 1)) {
+				newNeighbor = current.deliverTask(t);
+				if (canImprove(newNeighbor, upperBound) && isImprovement(newNeighbor, bestCost)) {
+					closed.remove(newNeighbor);
 					// task was delivered
-					newNeighbor.setParentState(current);
-					newNeighbor.setFcost(newNeighbor.getCost() + h(newNeighbor));
+					newNeighbor.setFcost(newNeighbor.getCost() + heuristic.estimate(newNeighbor));
 					open.add(newNeighbor);
 					nbStates++;
 				}
 			}
-			Collections.sort(open);
-			current = open.get(0);
-			open.remove(0);
+
+			// skip the states that were expanded before or that have been
+			// reached more cheaply since they were added
+			do {
+				current = open.poll();
+			} while (current != null && (closed.contains(current) || current.getCost() > bestCost.get(current)));
+		}
+		if (current == null) {
+			// no plan is cheaper than the upper bound
+			current = upperBound;
 		}
 
-		// System.out.println("While loop done after " + nbStates + ". Final
-		// state: " + current);
+		System.out.println("A* with " + heuristic.getClass().getSimpleName() + " done after " + nbStates
+		        + " states, " + closed.size() + " expanded (" + (System.currentTimeMillis() - startTime) + "ms)");
 		System.out.println("Final cost: " + current.getCost());
-		Plan p = new Plan(vehicle.getCurrentCity(), createReversePathFromState(current));
+		return current;
+	}
+
+	private State parallelAStar(State root, State upperBound) {
+		long startTime = System.currentTimeMillis();
+		ParallelAStar search = new ParallelAStar(heuristic, workers);
+		State finalState = search.search(root, upperBound);
 
-		return p;
+		System.out.println("Parallel A* with " + heuristic.getClass().getSimpleName() + " and " + workers
+		        + " workers done after " + search.getNbStates() + " states, " + search.getNbExpanded()
+		        + " expanded (" + (System.currentTimeMillis() - startTime) + "ms)");
+		System.out.println("Final cost: " + finalState.getCost());
+		return finalState;
 	}
 
-	private double h(State s) {
-		double cost = 0;
-		for (Task t : s.getAvailableTasks()) {
-			cost += t.pickupCity.distanceTo(t.deliveryCity) * costPerKm;
+	/**
+	 * runs weighted A* or beam search until they are optimal or 90% of the
+	 * plan timeout has passed, and returns the best plan found.
+	 */
+	private State anytime(State root, State upperBound) {
+		long startTime = System.currentTimeMillis();
+		AnytimeSearch search = new AnytimeSearch(heuristic, root, upperBound, startTime + timeoutPlan * 9 / 10);
+		State finalState = algorithm == Algorithm.BEAM ? search.beamSearch(beamWidth) : search
+		        .weightedAStar(weights);
+
+		System.out.println(algorithm + " with " + heuristic.getClass().getSimpleName() + " done after "
+		        + search.getNbStates() + " states, " + search.getNbExpanded() + " expanded ("
+		        + (System.currentTimeMillis() - startTime) + "ms)");
+		System.out.println("Final cost: " + finalState.getCost() + ", lower bound: " + search.getLowerBound()
+		        + ", gap: " + String.format("%.2f%%", search.getGap() * 100));
+		return finalState;
+	}
+
+	/**
+	 * records the cost of state s if its configuration has not been reached
+	 * more cheaply before.
+	 *
+	 * @param s
+	 * @param bestCost
+	 * @return true if s is the cheapest way to reach its configuration so far
+	 */
+	private boolean isImprovement(State s, Map<State, Double> bestCost) {
+		Double best = bestCost.get(s);
+		if (best != null && best <= s.getCost()) {
+			return false;
 		}
-		cost += s.getPickedUpTasks().size() * 800;
-		return cost;
+		bestCost.put(s, s.getCost());
+		return true;
 	}
 
-	private Plan BFS(Vehicle vehicle, TaskSet tasks) {
-		List<State> queue = new ArrayList<State>();
+	/**
+	 * creates the state the vehicle is in. The carried tasks already use some
+	 * of its capacity.
+	 *
+	 * @param vehicle
+	 * @param tasks
+	 *            the tasks to pick up
+	 * @return
+	 */
+	private State createRoot(Vehicle vehicle, TaskSet tasks) {
+		TaskSet carried = vehicle.getCurrentTasks();
+		TaskIndex index = new TaskIndex(paths, tasks, carried);
+		index.setMacroActions(macroActions);
+		return State.createRoot(index, index.mask(tasks), index.mask(carried), vehicle.getCurrentCity().id,
+		        agent.getTotalCost(), vehicle.capacity() - carried.weightSum());
+	}
+
+	private State BFS(State root, State upperBound) {
+		long startTime = System.currentTimeMillis();
+		Deque<State> queue = new ArrayDeque<State>();
+		// the lowest cost a configuration has been reached with so far
+		Map<State, Double> bestCost = new HashMap<State, Double>();
 		// add root
-		queue.add(new State(tasks, vehicle.getCurrentTasks(), vehicle.getCurrentCity(), agent.getTotalCost(),
-		        vehicle.capacity(), null));
+		queue.add(root);
+		bestCost.put(root, root.getCost());
 
-		State bestFinalState = new State(null, null, null, Integer.MAX_VALUE, 0, null);
+		// start with the upper bound so that we can prune and have a plan if
+		// we hit the state limit
+		State bestFinalState = upperBound;
 
 		int nbStates = 1;
+		boolean truncated = false;
 		State newNeighbor;
 		State current;
-		// this would stop after finding the first final solution
-		// while (!queue.isEmpty() && bestFinalState.getCost() ==
-		// Integer.MAX_VALUE) {
 		while (!queue.isEmpty()) {
-			current = queue.get(0);
-			queue.remove(0);
+			current = queue.poll();
+			if (current.getCost() > bestCost.get(current)) {
+				// a cheaper way to this configuration was found after this
+				// state was queued, its children would all be worse
+				continue;
+			}
 
 			// add new neighbor states
 
 			// pick up a new task if possible
-			for (Task t : current.getAvailableTasks()) {
-				newNeighbor = current.clone();
-				if (newNeighbor.pickUpTask(t)) {
+			for (int t = current.nextAvailableTask(0); t >= 0; t = current.nextAvailableTask(t + 1)) {
+				newNeighbor = current.pickUpTask(t);
+				if (newNeighbor != null && canImprove(newNeighbor, bestFinalState)) {
 					// task was picked up
-					if (newNeighbor.getCost() < bestFinalState.getCost()) {
-						newNeighbor.setParentState(current);
+					if (bestCost.size() >= maxStates && !bestCost.containsKey(newNeighbor)) {
+						truncated = true;
+					} else if (isImprovement(newNeighbor, bestCost)) {
 						queue.add(newNeighbor);
 						nbStates++;
 					}
 				}
 			}
 			// deliver one of our picked up tasks
-			for (Task t : current.getPickedUpTasks()) {
-				newNeighbor = current.clone();
-				if (newNeighbor.deliverTask(t)) {
-					// task was delivered
+			for (int t = current.nextPickedUpTask(0); t >= 0; t = current.nextPickedUpTask(t + 1)) {
+				newNeighbor = current.deliverTask(t);
+				// task was delivered
+				if (newNeighbor.isFinal()) {
+					// we are in a final state s we don't need to add it
+					// to the queue
 					if (newNeighbor.getCost() < bestFinalState.getCost()) {
-						newNeighbor.setParentState(current);
-						if (newNeighbor.getAvailableTasks().isEmpty() && newNeighbor.getPickedUpTasks().isEmpty()) {
-							// we are in a final state s we don't need to add it
-							// to the queue
-							if (newNeighbor.getCost() < bestFinalState.getCost()) {
-								bestFinalState = newNeighbor;
-							}
-						} else {
-							queue.add(newNeighbor);
-							nbStates++;
-						}
+						bestFinalState = newNeighbor;
+					}
+				} else if (canImprove(newNeighbor, bestFinalState)) {
+					if (bestCost.size() >= maxStates && !bestCost.containsKey(newNeighbor)) {
+						truncated = true;
+					} else if (isImprovement(newNeighbor, bestCost)) {
+						queue.add(newNeighbor);
+						nbStates++;
 					}
 				}
 			}
 		}
-		// System.out.println("While loop done after " + nbStates);
-		return new Plan(vehicle.getCurrentCity(), createReversePathFromState(bestFinalState));
+		if (truncated) {
+			System.out.println("BFS reached the limit of " + maxStates
+			        + " configurations, the plan may not be optimal");
+		}
+		System.out.println("BFS done after " + nbStates + " states, " + bestCost.size() + " configurations ("
+		        + (System.currentTimeMillis() - startTime) + "ms)");
+		return bestFinalState;
+	}
+
+	/**
+	 * @param s
+	 * @param bestFinalState
+	 * @return false if no final state reached through s can be cheaper than
+	 *         bestFinalState
+	 */
+	private boolean canImprove(State s, State bestFinalState) {
+		return s.getCost() + heuristic.estimate(s) < bestFinalState.getCost();
+	}
+
+	/**
+	 * creates the final state of the plan the search has to beat. It is the
+	 * greedy plan, or what is left of the previous plan if that plan was
+	 * cancelled and what is left is cheaper. Then the search only needs to
+	 * look for improvements of the plan it already had, which is usually much
+	 * faster than the first search.
+	 *
+	 * @param root
+	 * @return
+	 */
+	private State createUpperBound(State root) {
+		State greedy = createGreedyPlan(root);
+		if (!planWasCancelled) {
+			return greedy;
+		}
+		planWasCancelled = false;
+		State previous = resumePreviousPlan(root);
+		if (previous == null || previous.getCost() >= greedy.getCost()) {
+			return greedy;
+		}
+		System.out.println("Resuming the previous plan, cost: " + previous.getCost());
+		return previous;
+	}
+
+	/**
+	 * follows the pickups and deliveries of the previous plan from root. The
+	 * actions that were already done or whose task was taken by someone else
+	 * are skipped, the tasks that did not exist before are added greedily at
+	 * the end.
+	 *
+	 * @param root
+	 * @return the final state of the plan, or null if a pickup does not fit
+	 *         anymore
+	 */
+	private State resumePreviousPlan(State root) {
+		TaskIndex index = root.getTaskIndex();
+		State s = root;
+		for (int i = 0; i < previousTasks.size(); i++) {
+			int t = index.indexOf(previousTasks.get(i));
+			if (t < 0) {
+				continue;
+			}
+			if (previousPickups.get(i) && s.isAvailable(t)) {
+				s = s.pickUpTask(t);
+				if (s == null) {
+					return null;
+				}
+			} else if (!previousPickups.get(i) && s.isPickedUp(t)) {
+				s = s.deliverTask(t);
+			}
+		}
+		return s.isFinal() ? s : createGreedyPlan(s);
+	}
+
+	/**
+	 * stores the pickups and deliveries of the plan ending in finalState in
+	 * the order the vehicle does them, so that the plan can be resumed if it
+	 * is cancelled.
+	 *
+	 * @param finalState
+	 */
+	private void rememberPlan(State finalState) {
+		TaskIndex index = finalState.getTaskIndex();
+		PlanArena arena = index.getArena();
+		List<Integer> nodes = new ArrayList<Integer>();
+		for (int node = finalState.register(); node >= 0; node = arena.getParent(node)) {
+			nodes.add(node);
+		}
+		Collections.reverse(nodes);
+
+		previousTasks.clear();
+		previousPickups.clear();
+		for (int node : nodes) {
+			// same order as in createReversePathFromState
+			for (int t = arena.nextDeliveredTask(node, 0); t >= 0; t = arena.nextDeliveredTask(node, t + 1)) {
+				previousTasks.add(index.getTask(t));
+				previousPickups.add(false);
+			}
+			for (int t = arena.nextPickedUpTask(node, 0); t >= 0; t = arena.nextPickedUpTask(node, t + 1)) {
+				previousTasks.add(index.getTask(t));
+				previousPickups.add(true);
+			}
+		}
+	}
+
+	/**
+	 * creates the final state of the greedy plan that always takes the
+	 * cheapest next pickup or delivery. A delivery is always possible, so the
+	 * plan never gets stuck.
+	 *
+	 * @param root
+	 * @return
+	 */
+	private State createGreedyPlan(State root) {
+		for (int t = root.nextAvailableTask(0); t >= 0; t = root.nextAvailableTask(t + 1)) {
+			if (root.getTaskIndex().getWeight(t) > root.getRemainingCapacity() + root.getCarriedWeight()) {
+				System.out.println("task " + root.getTaskIndex().getTask(t) + " does not fit in the vehicle!");
+				System.exit(-1);
+			}
+		}
+		State s = root;
+		while (!s.isFinal()) {
+			State next = null;
+			for (int t = s.nextAvailableTask(0); t >= 0; t = s.nextAvailableTask(t + 1)) {
+				State child = s.pickUpTask(t);
+				if (child != null && (next == null || child.getCost() < next.getCost())) {
+					next = child;
+				}
+			}
+			for (int t = s.nextPickedUpTask(0); t >= 0; t = s.nextPickedUpTask(t + 1)) {
+				State child = s.deliverTask(t);
+				if (next == null || child.getCost() < next.getCost()) {
+					next = child;
+				}
+			}
+			s = next;
+		}
+		return s;
 	}
 
 	/**
 	 * this function lets us create the list of actions for the final state. It
-	 * takes the optimal path in reverse order and creates all the corresponding
-	 * actions. In the end it reverses the list to put them in the correct
-	 * order.
+	 * walks the nodes of the arena from the final state to the root and
+	 * creates the actions of every transition in reverse order. In the end it
+	 * reverses the list to put them in the correct order.
 	 *
 	 * @param finalState
 	 * @return
 	 */
 	private List<Action> createReversePathFromState(State finalState) {
 		List<Action> actions = new ArrayList<Action>();
-		State current = finalState;
-		do {
-			Task t;
-			if (current.hasPickedUpTaskInCurrentCity()) {
-				// find task that has been picked up in the current.city
-				t = (Task) TaskSet
-				        .intersectComplement(current.getParentState().getAvailableTasks(), current.getAvailableTasks())
-				        .toArray()[0];
-				actions.add(new Pickup(t));
-			} else {
-				// find task that has been delivered in the current.city
-				t = (Task) TaskSet
-				        .intersectComplement(current.getParentState().getPickedUpTasks(), current.getPickedUpTasks())
-				        .toArray()[0];
-				actions.add(new Delivery(t));
+		TaskIndex index = finalState.getTaskIndex();
+		PlanArena arena = index.getArena();
+		for (int node = finalState.register(); node >= 0; node = arena.getParent(node)) {
+			// the deliveries come first to free the capacity for the pickups
+			for (int t = arena.nextPickedUpTask(node, 0); t >= 0; t = arena.nextPickedUpTask(node, t + 1)) {
+				actions.add(new Pickup(index.getTask(t)));
 			}
-			actions.addAll(createReverseMoves(current.getParentState().getCurrentCity(), current.getCurrentCity()));
-
-			current = current.getParentState();
-		} while (current != null && current.getParentState() != null);
+			for (int t = arena.nextDeliveredTask(node, 0); t >= 0; t = arena.nextDeliveredTask(node, t + 1)) {
+				actions.add(new Delivery(index.getTask(t)));
+			}
+			int parent = arena.getParent(node);
+			if (parent >= 0) {
+				addReverseMoves(arena.getCity(parent), arena.getCity(node), actions);
+			}
+		}
 		Collections.reverse(actions);
 		return actions;
 	}
 
 	/**
-	 * this function creates the move actions to go from city source to city
+	 * this function adds the move actions to go from city source to city
 	 * destination but in reverse order. Reverse order is needed to recreate the
-	 * optimal path for a final state.
+	 * optimal path for a final state. The path is followed with the next hops
+	 * of the shortest paths.
 	 *
 	 * @param source
+	 *            the id of the source city
 	 * @param destination
-	 * @return
+	 *            the id of the destination city
+	 * @param actions
+	 *            the list the moves are added to
 	 */
-	private List<Action> createReverseMoves(City source, City destination) {
-		List<Action> moves = new ArrayList<Action>();
-		if (!source.equals(destination)) {
-			for (City city : source.pathTo(destination)) {
-				moves.add(new Move(city));
-			}
-			Collections.reverse(moves);
+	private void addReverseMoves(int source, int destination, List<Action> actions) {
+		int start = actions.size();
+		for (int city = source; city != destination;) {
+			city = paths.nextHop(city, destination);
+			actions.add(new Move(paths.getCity(city)));
 		}
-		return moves;
+		Collections.reverse(actions.subList(start, actions.size()));
 	}
 
 	/**
-	 * no actions are needed here because we take the task that are picked up
-	 * but not delivered into account in the plan(). This is done by checking
-	 * vehile.getCurrentTasks().
+	 * the task that are picked up but not delivered are taken into account in
+	 * the plan() by checking vehile.getCurrentTasks(). The next plan() starts
+	 * from what is left of the cancelled plan, see createUpperBound.
 	 *
 	 * @param carriedTasks
 	 */
 	@Override
 	public void planCancelled(TaskSet carriedTasks) {
+		planWasCancelled = true;
 	}
 
 }
@@ -0,0 +1,270 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Searches that return the best plan found when the deadline is reached. They
+ * keep a lower bound on the optimal cost, so the plan is optimal if the bound
+ * reaches its cost.
+ */
+public class AnytimeSearch {
+	// check the clock only every few expansions
+	private static final int CLOCK_INTERVAL = 256;
+
+	private Heuristic heuristic;
+	private long deadline;
+	private State root;
+
+	private State bestFinalState;
+	private double lowerBound;
+
+	private int nbStates;
+	private int nbExpanded;
+
+	/**
+	 * @param heuristic
+	 *            an admissible heuristic
+	 * @param root
+	 * @param upperBound
+	 *            the final state of a plan known in advance, e.g. a greedy
+	 *            one
+	 * @param deadline
+	 *            the time in ms (System.currentTimeMillis) the search must
+	 *            stop at
+	 */
+	public AnytimeSearch(Heuristic heuristic, State root, State upperBound, long deadline) {
+		super();
+		this.heuristic = heuristic;
+		this.root = root;
+		this.bestFinalState = upperBound;
+		this.deadline = deadline;
+		lowerBound = root.getCost() + heuristic.estimate(root);
+	}
+
+	/**
+	 * Runs weighted A* (fcost = g + weight * h) once per weight, with the
+	 * weights usually decreasing to 1. A large weight finds a plan quickly,
+	 * the later passes prune with it and look for a better one. A pass that
+	 * polls a final state proves that no plan is cheaper than its cost
+	 * divided by the weight.
+	 *
+	 * @param weights
+	 *            weights >= 1
+	 * @return the final state of the best plan found
+	 */
+	public State weightedAStar(double[] weights) {
+		for (double weight : weights) {
+			if (isOptimal() || !weightedAStar(weight)) {
+				break;
+			}
+		}
+		return bestFinalState;
+	}
+
+	/**
+	 * @return false if the deadline was reached
+	 */
+	private boolean weightedAStar(double weight) {
+		PriorityQueue<State> open = new PriorityQueue<State>(11, State.BY_FCOST);
+		Map<State, Double> bestCost = new HashMap<State, Double>();
+		Set<State> closed = new HashSet<State>();
+		root.setFcost(root.getCost() + weight * heuristic.estimate(root));
+		open.add(root);
+		bestCost.put(root, root.getCost());
+
+		while (!open.isEmpty()) {
+			if (nbExpanded % CLOCK_INTERVAL == 0 && System.currentTimeMillis() >= deadline) {
+				// every plan cheaper than the best one passes through a state
+				// of open, closed states are reopened when they are improved.
+				// The heuristic is read back from fcost = g + weight * h
+				// rather than estimated again, which could take longer than
+				// the time left
+				double min = bestFinalState.getCost();
+				for (State s : open) {
+					min = Math.min(min, s.getCost() + (s.getFcost() - s.getCost()) / weight);
+				}
+				lowerBound = Math.max(lowerBound, min);
+				return false;
+			}
+
+			State current = open.poll();
+			if (closed.contains(current) || current.getCost() > bestCost.get(current)) {
+				continue;
+			}
+			if (current.isFinal()) {
+				// weighted A* polls a final state at most weight times more
+				// expensive than the optimum
+				lowerBound = Math.max(lowerBound, root.getCost() + (current.getCost() - root.getCost()) / weight);
+				offerFinal(current);
+				return true;
+			}
+			closed.add(current);
+			nbExpanded++;
+
+			for (int t = current.nextAvailableTask(0); t >= 0; t = current.nextAvailableTask(t + 1)) {
+				add(current.pickUpTask(t), weight, open, bestCost, closed);
+			}
+			for (int t = current.nextPickedUpTask(0); t >= 0; t = current.nextPickedUpTask(t + 1)) {
+				add(current.deliverTask(t), weight, open, bestCost, closed);
+			}
+		}
+		// everything that could beat the best plan has been searched
+		lowerBound = bestFinalState.getCost();
+		return true;
+	}
+
+	private void add(State s, double weight, PriorityQueue<State> open, Map<State, Double> bestCost,
+	        Set<State> closed) {
+		if (s == null) {
+			// the task did not fit
+			return;
+		}
+		double h = heuristic.estimate(s);
+		if (s.getCost() + h >= bestFinalState.getCost()) {
+			return;
+		}
+		Double best = bestCost.get(s);
+		if (best != null && best <= s.getCost()) {
+			return;
+		}
+		s.setFcost(s.getCost() + weight * h);
+		bestCost.put(s, s.getCost());
+		closed.remove(s);
+		open.add(s);
+		nbStates++;
+	}
+
+	/**
+	 * Runs beam searches with a growing width: every layer of the search only
+	 * keeps the width states with the lowest cost plus heuristic. The width
+	 * doubles after every search until the time is up or a search did not
+	 * need to drop any state, which makes its plan optimal.
+	 *
+	 * With macro actions a transition can do several pickups and deliveries,
+	 * so the same configuration can appear in different layers. A state is
+	 * dropped if its configuration was reached as cheaply before in the same
+	 * search, in any layer.
+	 *
+	 * @param width
+	 *            the width of the first search
+	 * @return the final state of the best plan found
+	 */
+	public State beamSearch(int width) {
+		while (!isOptimal() && System.currentTimeMillis() < deadline) {
+			Boolean truncated = beamSearchPass(width);
+			if (truncated == null) {
+				// the deadline was reached
+				break;
+			}
+			if (!truncated) {
+				lowerBound = bestFinalState.getCost();
+			}
+			width = width > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : width * 2;
+		}
+		return bestFinalState;
+	}
+
+	/**
+	 * @return true if states were dropped, false if not and null if the
+	 *         deadline was reached
+	 */
+	private Boolean beamSearchPass(int width) {
+		boolean truncated = false;
+		// the lowest cost of every configuration reached by this search, in
+		// any layer
+		Map<State, Double> bestCost = new HashMap<State, Double>();
+		bestCost.put(root, root.getCost());
+		List<State> layer = new ArrayList<State>();
+		layer.add(root);
+		while (!layer.isEmpty()) {
+			Map<State, State> next = new HashMap<State, State>();
+			for (State current : layer) {
+				if (nbExpanded++ % CLOCK_INTERVAL == 0 && System.currentTimeMillis() >= deadline) {
+					return null;
+				}
+				for (int t = current.nextAvailableTask(0); t >= 0; t = current.nextAvailableTask(t + 1)) {
+					add(current.pickUpTask(t), next, bestCost);
+				}
+				for (int t = current.nextPickedUpTask(0); t >= 0; t = current.nextPickedUpTask(t + 1)) {
+					add(current.deliverTask(t), next, bestCost);
+				}
+			}
+			layer = new ArrayList<State>(next.values());
+			if (layer.size() > width) {
+				Collections.sort(layer, State.BY_FCOST);
+				layer = new ArrayList<State>(layer.subList(0, width));
+				truncated = true;
+			}
+		}
+		return truncated;
+	}
+
+	private void add(State s, Map<State, State> next, Map<State, Double> bestCost) {
+		if (s == null) {
+			// the task did not fit
+			return;
+		}
+		if (s.isFinal()) {
+			offerFinal(s);
+			return;
+		}
+		s.setFcost(s.getCost() + heuristic.estimate(s));
+		if (s.getFcost() >= bestFinalState.getCost()) {
+			return;
+		}
+		Double best = bestCost.get(s);
+		if (best == null || s.getCost() < best) {
+			// replaces a more expensive state of the same configuration
+			// if there is one in this layer
+			bestCost.put(s, s.getCost());
+			next.remove(s);
+			next.put(s, s);
+			nbStates++;
+		}
+	}
+
+	private void offerFinal(State s) {
+		if (s.getCost() < bestFinalState.getCost()) {
+			bestFinalState = s;
+		}
+	}
+
+	public State getBestFinalState() {
+		return bestFinalState;
+	}
+
+	/**
+	 * @return a cost no plan can be cheaper than
+	 */
+	public double getLowerBound() {
+		return Math.min(lowerBound, bestFinalState.getCost());
+	}
+
+	/**
+	 * @return by how much the best plan can be more expensive than the
+	 *         optimal one, relative to the cost of the plan
+	 */
+	public double getGap() {
+		double planCost = bestFinalState.getCost() - root.getCost();
+		return planCost <= 0 ? 0 : (bestFinalState.getCost() - getLowerBound()) / planCost;
+	}
+
+	public boolean isOptimal() {
+		return getLowerBound() >= bestFinalState.getCost();
+	}
+
+	public int getNbStates() {
+		return nbStates;
+	}
+
+	public int getNbExpanded() {
+		return nbExpanded;
+	}
+}
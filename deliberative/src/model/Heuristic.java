@@ -0,0 +1,13 @@
+package model;
+
+/**
+ * Estimates h(s), the cost of delivering the remaining tasks of a state.
+ */
+public interface Heuristic {
+
+	/**
+	 * @param s
+	 * @return the estimated cost from s to a final state
+	 */
+	double estimate(State s);
+}
@@ -0,0 +1,73 @@
+package model;
+
+import java.util.Arrays;
+
+import agents.DeliberativeAgent;
+
+/**
+ * Cost of a minimum spanning tree over the current city and the cities still
+ * to visit. Admissible but not consistent, so A* needs to reopen closed
+ * states to stay optimal.
+ */
+public class MSTHeuristic implements Heuristic {
+
+	@Override
+	public double estimate(State s) {
+		TaskIndex index = s.getTaskIndex();
+		int[] cities = new int[2 * index.size() + 1];
+		int nbCities = 0;
+		cities[nbCities++] = s.getCurrentCityId();
+		for (int t = s.nextAvailableTask(0); t >= 0; t = s.nextAvailableTask(t + 1)) {
+			nbCities = add(cities, nbCities, index.getPickupCity(t));
+			nbCities = add(cities, nbCities, index.getDeliveryCity(t));
+		}
+		for (int t = s.nextPickedUpTask(0); t >= 0; t = s.nextPickedUpTask(t + 1)) {
+			nbCities = add(cities, nbCities, index.getDeliveryCity(t));
+		}
+
+		// Prim: cities [0, inTree[ are in the tree, distance holds the
+		// distance of the other cities to the tree
+		double[] distance = new double[nbCities];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		double weight = 0;
+		int last = 0;
+		for (int inTree = 1; inTree < nbCities; inTree++) {
+			int closest = inTree;
+			for (int i = inTree; i < nbCities; i++) {
+				distance[i] = Math.min(distance[i], index.distance(cities[last], cities[i]));
+				if (distance[i] < distance[closest]) {
+					closest = i;
+				}
+			}
+			weight += distance[closest];
+			swap(cities, inTree, closest);
+			double d = distance[inTree];
+			distance[inTree] = distance[closest];
+			distance[closest] = d;
+			last = inTree;
+		}
+		return weight * DeliberativeAgent.costPerKm;
+	}
+
+	/**
+	 * adds city to the first nbCities entries of cities unless it is already
+	 * there
+	 *
+	 * @return the new number of cities
+	 */
+	private static int add(int[] cities, int nbCities, int city) {
+		for (int i = 0; i < nbCities; i++) {
+			if (cities[i] == city) {
+				return nbCities;
+			}
+		}
+		cities[nbCities] = city;
+		return nbCities + 1;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int tmp = a[i];
+		a[i] = a[j];
+		a[j] = tmp;
+	}
+}
@@ -0,0 +1,23 @@
+package model;
+
+import agents.DeliberativeAgent;
+
+/**
+ * Cost of the longest remaining leg of a single task. Admissible and cheap.
+ */
+public class MaxLegHeuristic implements Heuristic {
+
+	@Override
+	public double estimate(State s) {
+		TaskIndex index = s.getTaskIndex();
+		int city = s.getCurrentCityId();
+		double max = 0;
+		for (int t = s.nextAvailableTask(0); t >= 0; t = s.nextAvailableTask(t + 1)) {
+			max = Math.max(max, index.distance(city, index.getPickupCity(t)) + index.getPathLength(t));
+		}
+		for (int t = s.nextPickedUpTask(0); t >= 0; t = s.nextPickedUpTask(t + 1)) {
+			max = Math.max(max, index.distance(city, index.getDeliveryCity(t)));
+		}
+		return max * DeliberativeAgent.costPerKm;
+	}
+}
@@ -0,0 +1,204 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hash distributed A*: every configuration is owned by the worker its hash
+ * code picks, and states are sent to the inbox of their owner.
+ */
+public class ParallelAStar {
+	private Heuristic heuristic;
+	private int workers;
+
+	private List<Queue<State>> inboxes;
+	private ConcurrentHashMap<State, Double> bestCost;
+	// the states that were sent but not processed yet, the search is over
+	// when it reaches 0
+	private AtomicLong outstanding;
+	private volatile boolean aborted;
+
+	private volatile State bestFinalState;
+
+	private AtomicInteger nbStates;
+	private AtomicInteger nbExpanded;
+
+	public ParallelAStar(Heuristic heuristic, int workers) {
+		super();
+		this.heuristic = heuristic;
+		this.workers = workers;
+	}
+
+	/**
+	 * @param root
+	 * @param upperBound
+	 *            a final state known in advance, e.g. of a greedy plan. Only
+	 *            cheaper plans are searched for
+	 * @return the final state of an optimal plan
+	 */
+	public State search(State root, State upperBound) {
+		inboxes = new ArrayList<Queue<State>>();
+		for (int i = 0; i < workers; i++) {
+			inboxes.add(new ConcurrentLinkedQueue<State>());
+		}
+		bestCost = new ConcurrentHashMap<State, Double>();
+		outstanding = new AtomicLong();
+		aborted = false;
+		bestFinalState = upperBound;
+		nbStates = new AtomicInteger(1);
+		nbExpanded = new AtomicInteger();
+		if (root.isFinal()) {
+			return root;
+		}
+
+		bestCost.put(root, root.getCost());
+		root.setFcost(root.getCost() + heuristic.estimate(root));
+		send(root);
+
+		List<Worker> tasks = new ArrayList<Worker>();
+		for (int i = 0; i < workers; i++) {
+			tasks.add(new Worker(i));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (Future<Void> worker : executor.invokeAll(tasks)) {
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return bestFinalState;
+	}
+
+	/**
+	 * queues s at the worker that owns its configuration
+	 */
+	private void send(State s) {
+		outstanding.incrementAndGet();
+		inboxes.get((s.hashCode() & Integer.MAX_VALUE) % workers).add(s);
+	}
+
+	/**
+	 * records the cost of s in the shared table if no other thread has reached
+	 * its configuration more cheaply.
+	 *
+	 * @return true if s is the cheapest way to reach its configuration so far
+	 */
+	private boolean isImprovement(State s) {
+		Double cost = s.getCost();
+		while (true) {
+			Double best = bestCost.putIfAbsent(s, cost);
+			if (best == null) {
+				return true;
+			}
+			if (best <= cost) {
+				return false;
+			}
+			if (bestCost.replace(s, best, cost)) {
+				return true;
+			}
+		}
+	}
+
+	private synchronized void offerFinal(State s) {
+		if (s.getCost() < bestFinalState.getCost()) {
+			bestFinalState = s;
+		}
+	}
+
+	private class Worker implements Callable<Void> {
+		private Queue<State> inbox;
+		private PriorityQueue<State> open = new PriorityQueue<State>(11, State.BY_FCOST);
+
+		public Worker(int id) {
+			inbox = inboxes.get(id);
+		}
+
+		@Override
+		public Void call() {
+			try {
+				while (!aborted) {
+					State s;
+					while ((s = inbox.poll()) != null) {
+						open.add(s);
+					}
+					s = open.poll();
+					if (s == null) {
+						if (outstanding.get() == 0) {
+							return null;
+						}
+						// wait for the other workers to send us states
+						LockSupport.parkNanos(10000);
+					} else {
+						if (s.getFcost() < bestFinalState.getCost() && s.getCost() <= bestCost.get(s)) {
+							expand(s);
+						}
+						outstanding.decrementAndGet();
+					}
+				}
+				return null;
+			} catch (RuntimeException e) {
+				// the other workers would wait for our states forever
+				aborted = true;
+				throw e;
+			}
+		}
+
+		private void expand(State current) {
+			nbExpanded.incrementAndGet();
+			for (int t = current.nextAvailableTask(0); t >= 0; t = current.nextAvailableTask(t + 1)) {
+				generated(current.pickUpTask(t));
+			}
+			for (int t = current.nextPickedUpTask(0); t >= 0; t = current.nextPickedUpTask(t + 1)) {
+				generated(current.deliverTask(t));
+			}
+		}
+
+		private void generated(State s) {
+			if (s == null) {
+				// the task did not fit
+				return;
+			}
+			if (s.isFinal()) {
+				offerFinal(s);
+				return;
+			}
+			s.setFcost(s.getCost() + heuristic.estimate(s));
+			if (s.getFcost() < bestFinalState.getCost() && isImprovement(s)) {
+				nbStates.incrementAndGet();
+				send(s);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of states queued by the last search
+	 */
+	public int getNbStates() {
+		return nbStates.get();
+	}
+
+	/**
+	 * @return the number of states expanded by the last search
+	 */
+	public int getNbExpanded() {
+		return nbExpanded.get();
+	}
+}
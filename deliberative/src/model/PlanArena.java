@@ -0,0 +1,90 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * The search tree of one plan in growing arrays: parent node, city and the
+ * tasks picked up and delivered by each expanded state. Shared by the workers
+ * of a parallel search.
+ */
+public class PlanArena {
+	private int words;
+	private int size;
+	private int[] parent = new int[1024];
+	private int[] city = new int[1024];
+	private long[] pickedUp;
+	private long[] delivered;
+
+	/**
+	 * @param words
+	 *            the number of longs of a set of tasks
+	 */
+	public PlanArena(int words) {
+		super();
+		this.words = words;
+		pickedUp = new long[1024 * words];
+		delivered = new long[1024 * words];
+	}
+
+	/**
+	 * adds a node and computes the tasks picked up and delivered by its
+	 * transition from the tasks before and after it.
+	 *
+	 * @param parentNode
+	 *            the node of the parent, -1 for the root
+	 * @param cityId
+	 * @param parentTasks
+	 *            the available then the picked up words before the
+	 *            transition
+	 * @param tasks
+	 *            the available then the picked up words after the transition
+	 * @return the new node
+	 */
+	public synchronized int add(int parentNode, int cityId, long[] parentTasks, long[] tasks) {
+		if (size == parent.length) {
+			parent = Arrays.copyOf(parent, size * 2);
+			city = Arrays.copyOf(city, size * 2);
+			pickedUp = Arrays.copyOf(pickedUp, size * 2 * words);
+			delivered = Arrays.copyOf(delivered, size * 2 * words);
+		}
+		parent[size] = parentNode;
+		city[size] = cityId;
+		int offset = size * words;
+		for (int w = 0; w < words; w++) {
+			long picked = parentTasks[w] & ~tasks[w];
+			pickedUp[offset + w] = picked;
+			delivered[offset + w] = (parentTasks[words + w] | picked) & ~tasks[words + w];
+		}
+		return size++;
+	}
+
+	// the getters are only used once the search is over
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	public int getCity(int node) {
+		return city[node];
+	}
+
+	/**
+	 * @return the smallest task picked up by the transition of node that is at
+	 *         least from, -1 if there is none
+	 */
+	public int nextPickedUpTask(int node, int from) {
+		return TaskIndex.nextTask(pickedUp, node * words, words, from);
+	}
+
+	/**
+	 * @return the smallest task delivered by the transition of node that is
+	 *         at least from, -1 if there is none
+	 */
+	public int nextDeliveredTask(int node, int from) {
+		return TaskIndex.nextTask(delivered, node * words, words, from);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -1,44 +1,114 @@
 package model;
 
+import java.util.Arrays;
+import java.util.Comparator;
+
 import agents.DeliberativeAgent;
-import logist.task.Task;
-import logist.task.TaskSet;
 import logist.topology.Topology.City;
 
-public class State implements Comparable<State>, Cloneable {
+/**
+ * A node of the deliberative search. The available and picked up tasks are
+ * bitsets over the TaskIndex, the parent is a node of the PlanArena.
+ */
+public class State {
+	/**
+	 * orders the states by fcost, for the open lists. It is not the natural
+	 * order of State: it does not agree with equals and the fcost of a state
+	 * is set after the state has been put into the hash tables of a search,
+	 * which use compareTo on Comparable keys when many of them collide.
+	 */
+	public static final Comparator<State> BY_FCOST = new Comparator<State>() {
+		@Override
+		public int compare(State s1, State s2) {
+			return Double.compare(s1.fcost, s2.fcost);
+		}
+	};
+
+	private TaskIndex index;
 
-	private TaskSet availableTasks;
-	private TaskSet pickedUpTasks;
+	// the words of the available tasks followed by the words of the picked up
+	// tasks, not changed once the state has been created
+	private long[] tasks;
+	private int words;
 
-	private City currentCity;
+	private int currentCity;
 
 	private double cost;
 	private double fcost;
 	private int remainingCapacity;
 
-	private State parentState;
-	private boolean pickedUpTaskInCurrentCity;
+	// the node of the parent in the arena, -1 for the root
+	private int parentNode;
+	// the tasks of the parent, null once this state is registered
+	private long[] parentTasks;
+	// the node of this state, -1 until it is registered
+	private int node = -1;
 
-	public State(TaskSet availableTasks, TaskSet pickedUpTasks, City currentCity, double cost, int remainingCapacity,
-	        State parentState) {
+	private State(TaskIndex index, long[] tasks, int currentCity, double cost, int remainingCapacity,
+	        int parentNode, long[] parentTasks) {
 		super();
-		this.availableTasks = availableTasks;
-		this.pickedUpTasks = pickedUpTasks;
+		this.index = index;
+		this.tasks = tasks;
+		this.words = index.getWords();
 		this.currentCity = currentCity;
 		this.cost = cost;
 		this.remainingCapacity = remainingCapacity;
+		this.parentNode = parentNode;
+		this.parentTasks = parentTasks;
+	}
+
+	/**
+	 * @return the smallest available task that is at least from, -1 if there
+	 *         is none
+	 */
+	public int nextAvailableTask(int from) {
+		return TaskIndex.nextTask(tasks, 0, words, from);
+	}
+
+	/**
+	 * @return the smallest picked up task that is at least from, -1 if there
+	 *         is none
+	 */
+	public int nextPickedUpTask(int from) {
+		return TaskIndex.nextTask(tasks, words, words, from);
+	}
 
+	public boolean isAvailable(int t) {
+		return (tasks[t >>> 6] & (1L << t)) != 0;
 	}
 
-	public TaskSet getAvailableTasks() {
-		return availableTasks;
+	public boolean isPickedUp(int t) {
+		return (tasks[words + (t >>> 6)] & (1L << t)) != 0;
 	}
 
-	public TaskSet getPickedUpTasks() {
-		return pickedUpTasks;
+	/**
+	 * @return the total weight of the picked up tasks
+	 */
+	public int getCarriedWeight() {
+		int sum = 0;
+		for (int w = 0; w < words; w++) {
+			sum += index.getTotalWeight(tasks[words + w], w);
+		}
+		return sum;
+	}
+
+	/**
+	 * @return true if all tasks have been delivered
+	 */
+	public boolean isFinal() {
+		for (long word : tasks) {
+			if (word != 0) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public City getCurrentCity() {
+		return index.getCity(currentCity);
+	}
+
+	public int getCurrentCityId() {
 		return currentCity;
 	}
 
@@ -54,74 +124,169 @@ public class State implements Comparable<State>, Cloneable {
 		return remainingCapacity;
 	}
 
-	@Override
-	public State clone() {
-		return new State(availableTasks.clone(), pickedUpTasks.clone(), currentCity, cost, remainingCapacity,
-		        parentState);
+	public TaskIndex getTaskIndex() {
+		return index;
 	}
 
 	/**
-	 * picks up task t for this state and updates all necessary fields if
-	 * possible.
-	 * 
+	 * moves to the pickup city of task t and picks it up.
+	 *
 	 * @param t
-	 * @return
+	 *            the number of an available task
+	 * @return the new state or null if the task does not fit
 	 */
-	public boolean pickUpTask(Task t) {
+	public State pickUpTask(int t) {
 		// cannot accept task
-		if (remainingCapacity < t.weight) {
-			return false;
+		if (remainingCapacity < index.getWeight(t)) {
+			return null;
 		}
-		if (availableTasks.remove(t)) {
-			if (pickedUpTasks.add(t)) {
-				cost += currentCity.distanceTo(t.pickupCity) * DeliberativeAgent.costPerKm;
-				remainingCapacity -= t.weight;
-				currentCity = t.pickupCity;
-				pickedUpTaskInCurrentCity = true;
-				return true;
-			} else {
-				System.out.println("task " + t + " already picked up!");
-				System.exit(-1);
-			}
-		} else {
-			System.out.println("task " + t + " not available!");
+		if (!isAvailable(t)) {
+			System.out.println("task " + index.getTask(t) + " not available!");
 			System.exit(-1);
 		}
-		return false;
+		long[] childTasks = tasks.clone();
+		childTasks[t >>> 6] &= ~(1L << t);
+		childTasks[words + (t >>> 6)] |= 1L << t;
+		State child = new State(index, childTasks, index.getPickupCity(t), cost
+		        + index.distance(currentCity, index.getPickupCity(t)) * DeliberativeAgent.costPerKm,
+		        remainingCapacity - index.getWeight(t), register(), tasks);
+		child.applySameCityActions();
+		return child;
 	}
 
 	/**
-	 * delivers task t for this state and updates all necessary fields.
+	 * moves to the delivery city of task t and delivers it.
 	 *
 	 * @param t
-	 * @return
+	 *            the number of a picked up task
+	 * @return the new state
 	 */
-	public boolean deliverTask(Task t) {
-		if (pickedUpTasks.remove(t)) {
-			cost += currentCity.distanceTo(t.deliveryCity) * DeliberativeAgent.costPerKm;
-			remainingCapacity += t.weight;
-			currentCity = t.deliveryCity;
-			pickedUpTaskInCurrentCity = false;
-			return true;
-		} else {
-			System.out.println("task " + t + " has not been picked up!");
+	public State deliverTask(int t) {
+		if (!isPickedUp(t)) {
+			System.out.println("task " + index.getTask(t) + " has not been picked up!");
 			System.exit(-1);
 		}
-		return false;
+		long[] childTasks = tasks.clone();
+		childTasks[words + (t >>> 6)] &= ~(1L << t);
+		State child = new State(index, childTasks, index.getDeliveryCity(t), cost
+		        + index.distance(currentCity, index.getDeliveryCity(t)) * DeliberativeAgent.costPerKm,
+		        remainingCapacity + index.getWeight(t), register(), tasks);
+		child.applySameCityActions();
+		return child;
+	}
+
+	/**
+	 * With macro actions enabled, a transition does all the pickups and
+	 * deliveries in its city that cannot make the plan worse, since they cost
+	 * nothing:
+	 * <ul>
+	 * <li>delivering a carried task is always at least as good as delivering
+	 * it later, it frees capacity and the route stays the same</li>
+	 * <li>picking up a task is always at least as good as coming back for it
+	 * if the capacity left is enough for all the available tasks, then
+	 * carrying it can never block another pickup</li>
+	 * </ul>
+	 * This removes the orderings of actions in the same city from the search
+	 * and makes the plans shorter in transitions.
+	 */
+	private void applySameCityActions() {
+		if (!index.isMacroActions()) {
+			return;
+		}
+		boolean anyPickup = false;
+		int availableWeight = 0;
+		for (int w = 0; w < words; w++) {
+			long delivered = tasks[words + w] & index.getTasksDeliveredIn(currentCity, w);
+			tasks[words + w] &= ~delivered;
+			remainingCapacity += index.getTotalWeight(delivered, w);
+
+			anyPickup |= (tasks[w] & index.getTasksPickedUpIn(currentCity, w)) != 0;
+			availableWeight += index.getTotalWeight(tasks[w], w);
+		}
+		if (!anyPickup || remainingCapacity < availableWeight) {
+			return;
+		}
+		for (int w = 0; w < words; w++) {
+			long pickedUp = tasks[w] & index.getTasksPickedUpIn(currentCity, w);
+			tasks[w] &= ~pickedUp;
+			tasks[words + w] |= pickedUp;
+			remainingCapacity -= index.getTotalWeight(pickedUp, w);
+		}
 	}
 
-	public void setParentState(State parent) {
-		parentState = parent;
+	/**
+	 * creates the first state of a search.
+	 *
+	 * @return a state without parent that did the pickups and deliveries of
+	 *         the current city if macro actions are enabled
+	 */
+	public static State createRoot(TaskIndex index, long[] availableTasks, long[] pickedUpTasks, int currentCity,
+	        double cost, int remainingCapacity) {
+		int words = index.getWords();
+		long[] tasks = new long[2 * words];
+		System.arraycopy(availableTasks, 0, tasks, 0, words);
+		System.arraycopy(pickedUpTasks, 0, tasks, words, words);
+		State root = new State(index, tasks, currentCity, cost, remainingCapacity, -1, tasks.clone());
+		root.applySameCityActions();
+		return root;
 	}
 
-	public State getParentState() {
-		return parentState;
+	/**
+	 * adds the node of this state to the arena if it is not there yet. The
+	 * states are expanded by one thread at a time, so this does not need to be
+	 * synchronized beyond the arena itself.
+	 *
+	 * @return the node of this state
+	 */
+	public int register() {
+		if (node < 0) {
+			node = index.getArena().add(parentNode, currentCity, parentTasks, tasks);
+			parentTasks = null;
+		}
+		return node;
 	}
 
 	@Override
 	public String toString() {
-		return "S(f:" + fcost + ", c:" + cost + ", " + currentCity + ", a:" + getAvailableTasks().size() + ", p:"
-		        + getPickedUpTasks().size() + ")";
+		int available = 0;
+		int pickedUp = 0;
+		for (int w = 0; w < words; w++) {
+			available += Long.bitCount(tasks[w]);
+			pickedUp += Long.bitCount(tasks[words + w]);
+		}
+		return "S(f:" + fcost + ", c:" + cost + ", " + getCurrentCity() + ", a:" + available + ", p:" + pickedUp
+		        + ")";
+	}
+
+	/**
+	 * Two states are equal if they describe the same configuration: the same
+	 * city and the same available and picked up tasks. The cost and the way
+	 * the state was reached do not matter, so that the search can detect a
+	 * configuration it has already seen.
+	 */
+	@Override
+	public int hashCode() {
+		// the task sets are small masks that differ in a few low bits, so
+		// they are mixed over all 64 bits before they are folded to an int
+		long h = 0;
+		for (long word : tasks) {
+			h = mix(h ^ word);
+		}
+		h = mix(h ^ currentCity);
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * the 64 bit finalizer of MurmurHash3: every bit of x changes about half
+	 * of the bits of the result.
+	 */
+	private static long mix(long x) {
+		x ^= x >>> 33;
+		x *= 0xff51afd7ed558ccdL;
+		x ^= x >>> 33;
+		x *= 0xc4ceb9fe1a85ec53L;
+		x ^= x >>> 33;
+		return x;
 	}
 
 	/*
@@ -141,59 +306,7 @@ public class State implements Comparable<State>, Cloneable {
 			return false;
 		}
 		State other = (State) obj;
-		if (availableTasks == null) {
-			if (other.availableTasks != null) {
-				return false;
-			}
-		} else if (!availableTasks.equals(other.availableTasks)) {
-			return false;
-		}
-		if (Double.doubleToLongBits(cost) != Double.doubleToLongBits(other.cost)) {
-			return false;
-		}
-		if (currentCity == null) {
-			if (other.currentCity != null) {
-				return false;
-			}
-		} else if (!currentCity.equals(other.currentCity)) {
-			return false;
-		}
-		if (parentState == null) {
-			if (other.parentState != null) {
-				return false;
-			}
-		} else if (!parentState.equals(other.parentState)) {
-			return false;
-		}
-		if (pickedUpTasks == null) {
-			if (other.pickedUpTasks != null) {
-				return false;
-			}
-		} else if (!pickedUpTasks.equals(other.pickedUpTasks)) {
-			return false;
-		}
-		if (remainingCapacity != other.remainingCapacity) {
-			return false;
-		}
-		return true;
-	}
-
-	/**
-	 * @return the pickedUpTaskInCurrentCity
-	 */
-	public boolean hasPickedUpTaskInCurrentCity() {
-		return pickedUpTaskInCurrentCity;
-	}
-
-	@Override
-	public int compareTo(State s) {
-		if (fcost == s.fcost) {
-			return 0;
-		} else if (fcost < s.fcost) {
-			return -1;
-		} else {
-			return 1;
-		}
+		return currentCity == other.currentCity && Arrays.equals(tasks, other.tasks);
 	}
 
 	/**
@@ -0,0 +1,211 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * Numbers the tasks of one planning problem so that a State can store task
+ * sets as bits, and precomputes their cities, weights and lengths.
+ */
+public class TaskIndex {
+	private Task[] tasks;
+	// the number of longs of a set of tasks
+	private int words;
+	private ShortestPaths paths;
+	private int[] pickupCity;
+	private int[] deliveryCity;
+	private int[] weight;
+	private double[] pathLength;
+	// the tasks picked up and delivered in each city, the words of city c
+	// start at c * words
+	private long[] pickedUpIn;
+	private long[] deliveredIn;
+
+	private boolean macroActions = true;
+
+	private PlanArena arena;
+
+	/**
+	 * @param paths
+	 *            the shortest paths of the topology
+	 * @param taskSets
+	 *            all tasks that appear in the plan, e.g. the available and the
+	 *            carried tasks
+	 */
+	public TaskIndex(ShortestPaths paths, TaskSet... taskSets) {
+		super();
+		List<Task> all = new ArrayList<Task>();
+		for (TaskSet set : taskSets) {
+			for (Task t : set) {
+				if (!all.contains(t)) {
+					all.add(t);
+				}
+			}
+		}
+
+		this.paths = paths;
+
+		tasks = all.toArray(new Task[all.size()]);
+		pickupCity = new int[tasks.length];
+		deliveryCity = new int[tasks.length];
+		weight = new int[tasks.length];
+		pathLength = new double[tasks.length];
+		for (int i = 0; i < tasks.length; i++) {
+			pickupCity[i] = tasks[i].pickupCity.id;
+			deliveryCity[i] = tasks[i].deliveryCity.id;
+			weight[i] = tasks[i].weight;
+			pathLength[i] = paths.distance(pickupCity[i], deliveryCity[i]);
+		}
+
+		words = Math.max(1, (tasks.length + 63) >>> 6);
+		pickedUpIn = new long[paths.size() * words];
+		deliveredIn = new long[paths.size() * words];
+		for (int i = 0; i < tasks.length; i++) {
+			pickedUpIn[pickupCity[i] * words + (i >>> 6)] |= 1L << i;
+			deliveredIn[deliveryCity[i] * words + (i >>> 6)] |= 1L << i;
+		}
+		arena = new PlanArena(words);
+	}
+
+	/**
+	 * @return the number of longs of a set of tasks
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * @param macroActions
+	 *            true if the states do the safe pickups and deliveries of a
+	 *            city together, see State
+	 */
+	public void setMacroActions(boolean macroActions) {
+		this.macroActions = macroActions;
+	}
+
+	public boolean isMacroActions() {
+		return macroActions;
+	}
+
+	/**
+	 * @return the search tree of the states of this plan
+	 */
+	public PlanArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * @return word w of the tasks picked up in the city with that id
+	 */
+	public long getTasksPickedUpIn(int city, int w) {
+		return pickedUpIn[city * words + w];
+	}
+
+	/**
+	 * @return word w of the tasks delivered in the city with that id
+	 */
+	public long getTasksDeliveredIn(int city, int w) {
+		return deliveredIn[city * words + w];
+	}
+
+	/**
+	 * @return the words of the tasks of set
+	 */
+	public long[] mask(TaskSet set) {
+		long[] mask = new long[words];
+		for (int i = 0; i < tasks.length; i++) {
+			if (set.contains(tasks[i])) {
+				mask[i >>> 6] |= 1L << i;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * @param mask
+	 *            a set of tasks whose words start at offset
+	 * @return the smallest task of the set that is at least from, -1 if there
+	 *         is none
+	 */
+	static int nextTask(long[] mask, int offset, int words, int from) {
+		int w = from >>> 6;
+		if (w >= words) {
+			return -1;
+		}
+		long bits = mask[offset + w] & (-1L << from);
+		while (bits == 0) {
+			if (++w == words) {
+				return -1;
+			}
+			bits = mask[offset + w];
+		}
+		return (w << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	public int size() {
+		return tasks.length;
+	}
+
+	public Task getTask(int i) {
+		return tasks[i];
+	}
+
+	/**
+	 * @return the number of task t, -1 if it is not part of the plan
+	 */
+	public int indexOf(Task t) {
+		for (int i = 0; i < tasks.length; i++) {
+			if (tasks[i].equals(t)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public City getCity(int id) {
+		return paths.getCity(id);
+	}
+
+	public int getPickupCity(int i) {
+		return pickupCity[i];
+	}
+
+	public int getDeliveryCity(int i) {
+		return deliveryCity[i];
+	}
+
+	public int getWeight(int i) {
+		return weight[i];
+	}
+
+	/**
+	 * @return the total weight of the tasks of word w of a set of tasks
+	 */
+	public int getTotalWeight(long bits, int w) {
+		int sum = 0;
+		for (; bits != 0; bits &= bits - 1) {
+			sum += weight[(w << 6) + Long.numberOfTrailingZeros(bits)];
+		}
+		return sum;
+	}
+
+	/**
+	 * @return the length of the shortest path from the pickup to the delivery
+	 *         city of task i
+	 */
+	public double getPathLength(int i) {
+		return pathLength[i];
+	}
+
+	/**
+	 * @return the length of the shortest path between the cities with ids
+	 *         from and to
+	 */
+	public double distance(int from, int to) {
+		return paths.distance(from, to);
+	}
+}
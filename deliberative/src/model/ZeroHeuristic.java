@@ -0,0 +1,12 @@
+package model;
+
+/**
+ * Estimates 0, which turns A* into a uniform cost search.
+ */
+public class ZeroHeuristic implements Heuristic {
+
+	@Override
+	public double estimate(State s) {
+		return 0;
+	}
+}
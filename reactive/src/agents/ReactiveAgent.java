@@ -1,35 +1,70 @@
 package agents;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import logist.agent.Agent;
 import logist.behavior.ReactiveBehavior;
 import logist.plan.Action;
 import logist.plan.Action.Move;
 import logist.plan.Action.Pickup;
-import logist.plan.Plan;
 import logist.simulation.Vehicle;
 import logist.task.Task;
 import logist.task.TaskDistribution;
 import logist.topology.Topology;
-import logist.topology.Topology.City;
-import model.AgentAction;
-import model.State;
+import model.AgentMetrics;
+import model.MDPSolver;
+import model.MDPSolver.Algorithm;
+import model.PolicyCache;
+import model.PolicyEvaluator;
+import model.ShortestPaths;
+import model.StateSpace;
+import model.TaskStatistics;
 
 public class ReactiveAgent implements ReactiveBehavior {
 	private double pPickup;
-	private int numActions;
 	private Agent myAgent;
-	private List<State> listOfStates;
 	private TaskDistribution dist;
-	private final double CHANGE_THRESHOLD = 0.0;
-	private Topology topology;
+	private ShortestPaths paths;
+	private double epsilon;
+	private StateSpace stateSpace;
 
-	Map<State, AgentAction> bestAction;
-	Map<State, Double> stateValue;
+	// one policy per distinct cost per km of our vehicles
+	private List<Integer> costsPerKm;
+
+	// both indexed by policy and by the state index of the state space.
+	// bestAction holds the index of the best action in stateSpace.getActions(s)
+	int[][] bestAction;
+	double[][] stateValue;
+
+	// the moves of the best actions, replaced as a whole when the adaptive
+	// mode updates the policies. act() reads it once per call
+	private volatile Moves moves;
+
+	// the policy used by each of our vehicles
+	private int[] vehicleIds;
+	private int[] vehiclePolicy;
+
+	// adaptive mode: the observed tasks and the solver that updates the
+	// policies with them in the background. After setup stateValue,
+	// bestAction and updateSolver are only used by the background thread
+	private TaskStatistics statistics;
+	private double priorWeight;
+	private MDPSolver updateSolver;
+	private AtomicBoolean updating;
+
+	// runs the policy updates and the metrics dumps off the act() thread,
+	// null if neither is enabled
+	private ExecutorService background;
+
+	// null if the metrics are disabled
+	private AgentMetrics metrics;
+	private int metricsInterval;
 
 	@Override
 	public void setup(Topology topology, TaskDistribution distribution, Agent agent) {
@@ -41,160 +76,308 @@ public class ReactiveAgent implements ReactiveBehavior {
 			System.out.println("Please enter a number in [0,1[");
 			System.exit(-1);
 		}
+		// Reads the convergence criterion of the value iteration. A smaller
+		// epsilon gives a better policy but needs more sweeps.
+		epsilon = agent.readProperty("epsilon", Double.class, 0.01);
+		Integer maxIterations = agent.readProperty("max-iterations", Integer.class, 10000);
+		if (epsilon <= 0 || maxIterations < 1) {
+			System.out.println("Please enter an epsilon > 0 and max-iterations >= 1");
+			System.exit(-1);
+		}
+		// Reads the algorithm used to solve the MDP, see MDPSolver.Algorithm
+		String algorithmName = agent.readProperty("algorithm", String.class, "GAUSS_SEIDEL");
+		Algorithm algorithm = Algorithm.valueOf(algorithmName.toUpperCase());
+		// Reads the number of threads used by the PARALLEL algorithm
+		Integer workers = agent.readProperty("workers", Integer.class, Runtime.getRuntime().availableProcessors());
+		if (workers < 1) {
+			System.out.println("Please enter a number of workers >= 1");
+			System.exit(-1);
+		}
+		// Reads the directory solved policies are cached in. An empty value
+		// disables the cache
+		String cacheDirectory = agent.readProperty("policy-cache", String.class, "cache");
+		// Reads whether the policies adapt to the tasks we actually see.
+		// adaptive-prior is the number of observations the declared task
+		// distribution of a city is worth, adaptive-sweeps the number of
+		// sweeps run after each step
+		Boolean adaptive = agent.readProperty("adaptive", Boolean.class, false);
+		priorWeight = agent.readProperty("adaptive-prior", Double.class, 50.0);
+		Integer adaptiveSweeps = agent.readProperty("adaptive-sweeps", Integer.class, 5);
+		if (priorWeight <= 0 || adaptiveSweeps < 1) {
+			System.out.println("Please enter an adaptive-prior > 0 and adaptive-sweeps >= 1");
+			System.exit(-1);
+		}
+		// Reads where the metrics of act() are written to and how many steps
+		// pass between two dumps. A metrics-interval of 0, the default,
+		// disables them
+		String metricsFile = agent.readProperty("metrics-file", String.class, "metrics/" + agent.name() + ".csv");
+		metricsInterval = agent.readProperty("metrics-interval", Integer.class, 0);
+		if (metricsInterval < 0) {
+			System.out.println("Please enter a metrics-interval >= 0");
+			System.exit(-1);
+		}
+		// Reads a comma separated list of discount factors whose policies are
+		// solved and evaluated on our task distribution before the simulation
+		// starts, e.g. to choose the discount-factor. Empty by default
+		String evaluateDiscounts = agent.readProperty("evaluate-discounts", String.class, "");
 
-		this.topology = topology;
 		pPickup = discount;
-		numActions = 0;
 		myAgent = agent;
 		dist = distribution;
+		paths = new ShortestPaths(topology);
 
-		bestAction = new HashMap<State, AgentAction>();
-		stateValue = new HashMap<State, Double>();
-		listOfStates = new ArrayList<State>();
-		createStatesAndActions();
-		MDP();
-		System.out.println("Done with ReactiveAgent Setup");
-	}
-
-	private void createStatesAndActions() {
 		System.out.println("Setting up States and Actions");
-		for (City current : topology.cities()) {
-			// Create one action per neighbor. The action is the movmement form
-			// City current to City neighb without package
-			List<AgentAction> neighborActions = new ArrayList<AgentAction>();
-
-			for (City neighb : current.neighbors()) {
-				AgentAction moveToNeighborWithoutPackage = new AgentAction(neighb, false);
-				neighborActions.add(moveToNeighborWithoutPackage);
+		stateSpace = new StateSpace(paths, dist);
+		costsPerKm = new ArrayList<Integer>();
+		vehicleIds = new int[myAgent.vehicles().size()];
+		vehiclePolicy = new int[myAgent.vehicles().size()];
+		for (int i = 0; i < vehicleIds.length; i++) {
+			Vehicle v = myAgent.vehicles().get(i);
+			if (!costsPerKm.contains(v.costPerKm())) {
+				costsPerKm.add(v.costPerKm());
 			}
-			// Create the state of being in City current and not having a
-			// package available, thus not having a detination city
-			State noPAvailabeState = new State(current, null, neighborActions);
-			listOfStates.add(noPAvailabeState);
-			stateValue.put(noPAvailabeState, 0.0);
-
-			for (City dest : topology.cities()) {
-				if (!current.equals(dest)) {
-					// Create the action of moving from City current to City
-					// dest with a package
-					List<AgentAction> packageAvailableActions = new ArrayList<AgentAction>();
-					packageAvailableActions.add(new AgentAction(dest, true));
-
-					// Create the actions of refusing the package and moving to
-					// a neighbor
-					for (City neighb : current.neighbors()) {
-						// it wouldnt make any sense to refuse a package to a
-						// neighbor if our aciton is going to that neighbor
-						if (!neighb.equals(dest)) {
-							AgentAction refusePackageAndMoveToNeighb = new AgentAction(neighb, false);
-							packageAvailableActions.add(refusePackageAndMoveToNeighb);
-						}
-					}
-					// Create the state of being in City current and having a
-					// package available to City dest
-					State takingPState = new State(current, dest, packageAvailableActions);
-					listOfStates.add(takingPState);
-					stateValue.put(takingPState, 0.0);
+			vehicleIds[i] = v.id();
+			vehiclePolicy[i] = costsPerKm.indexOf(v.costPerKm());
+		}
+
+		PolicyCache cache = cacheDirectory.isEmpty() ? null : new PolicyCache(cacheDirectory);
+		long[] keys = new long[costsPerKm.size()];
+		bestAction = new int[costsPerKm.size()][];
+		stateValue = new double[costsPerKm.size()][];
+		List<Integer> unsolved = new ArrayList<Integer>();
+
+		for (int k = 0; k < costsPerKm.size(); k++) {
+			bestAction[k] = new int[stateSpace.getNbStates()];
+			stateValue[k] = new double[stateSpace.getNbStates()];
+			if (cache != null) {
+				keys[k] = cache.key(stateSpace, costsPerKm.get(k), pPickup, epsilon);
+			}
+			if (cache != null && cache.load(keys[k], stateValue[k], bestAction[k])) {
+				System.out.println("Loaded cached policy for cost per km " + costsPerKm.get(k));
+			} else {
+				unsolved.add(k);
+			}
+		}
+
+		if (!unsolved.isEmpty()) {
+			// solve all missing policies in one pass
+			double[] costs = new double[unsolved.size()];
+			for (int i = 0; i < costs.length; i++) {
+				costs[i] = costsPerKm.get(unsolved.get(i));
+			}
+			MDPSolver solver = new MDPSolver(stateSpace, costs, pPickup);
+			solver.setConvergence(epsilon, maxIterations);
+			solver.setWorkers(workers);
+			solver.solve(algorithm);
+			for (int i = 0; i < costs.length; i++) {
+				int k = unsolved.get(i);
+				bestAction[k] = solver.getBestAction(i);
+				stateValue[k] = solver.getStateValue(i);
+				// the key does not depend on max-iterations or the algorithm,
+				// so only a converged policy is valid for every run
+				if (cache != null && solver.isConverged()) {
+					cache.store(keys[k], stateValue[k], bestAction[k]);
 				}
 			}
 		}
-	}
+		moves = createMoves();
+		if (!evaluateDiscounts.trim().isEmpty()) {
+			evaluateDiscounts(evaluateDiscounts, algorithm, maxIterations, workers);
+		}
 
-	private void MDP() {
-		System.out.println("Run MDP-Algorithm");
-		int changed = 0;
-		int nbStates = listOfStates.size();
-
-		while (changed != nbStates) {
-			changed = 0;
-			for (State s : listOfStates) {
-				double maxValue = -Double.MAX_VALUE;
-				AgentAction bestAction = null;
-
-				for (AgentAction a : s.getListOfActions()) {
-					double sum = 0;
-					for (State sp : listOfStates) {
-						sum += T(s, a, sp) * stateValue.get(sp);
-					}
-					double currentValue = R(s, a) + pPickup * sum;
-					if (currentValue >= maxValue) {
-						maxValue = currentValue;
-						bestAction = a;
-					}
+		if (adaptive) {
+			statistics = new TaskStatistics(stateSpace);
+			// the rewards do not change, the updates only replace the
+			// transitions of this solver and continue from its policies
+			double[] costs = new double[costsPerKm.size()];
+			for (int k = 0; k < costs.length; k++) {
+				costs[k] = costsPerKm.get(k);
+			}
+			updateSolver = new MDPSolver(stateSpace, costs, pPickup);
+			updateSolver.setVerbose(false);
+			updateSolver.setConvergence(epsilon, adaptiveSweeps);
+			for (int k = 0; k < costs.length; k++) {
+				updateSolver.setInitialPolicy(k, stateValue[k], bestAction[k]);
+			}
+			updating = new AtomicBoolean();
+		}
+		if (metricsInterval > 0) {
+			metrics = new AgentMetrics(myAgent.name(), metricsFile);
+			// the simulation ends without telling us, dump what we have left
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					metrics.dump(myAgent.getTotalProfit());
 				}
-				if (maxValue / stateValue.get(s) - 1 <= CHANGE_THRESHOLD) {
-					changed++;
+			}));
+		}
+		if (adaptive || metrics != null) {
+			background = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					// must not keep the simulation alive
+					Thread t = new Thread(r, myAgent.name() + "-background");
+					t.setDaemon(true);
+					return t;
 				}
-				stateValue.put(s, maxValue);
-				this.bestAction.put(s, bestAction);
-			}
+			});
 		}
+		System.out.println("Done with ReactiveAgent Setup");
+	}
 
+	/**
+	 * solves the policies of every discount factor of the list for the cost
+	 * per km of our vehicles and prints the expected profit per step the
+	 * PolicyEvaluator computes for them on our state space.
+	 *
+	 * @param discounts
+	 *            comma separated discount factors in [0,1[
+	 */
+	private void evaluateDiscounts(String discounts, Algorithm algorithm, int maxIterations, int workers) {
+		double[] costs = new double[costsPerKm.size()];
+		for (int k = 0; k < costs.length; k++) {
+			costs[k] = costsPerKm.get(k);
+		}
+		PolicyEvaluator evaluator = new PolicyEvaluator(stateSpace);
+		System.out.println(String.format(Locale.US, "%8s %11s %7s %12s %10s %12s %8s", "discount", "cost per km",
+		        "sweeps", "reward/step", "km/step", "profit/step", "pickups"));
+		for (String factor : discounts.split(",")) {
+			double discount = Double.parseDouble(factor.trim());
+			if (discount >= 1 || discount < 0) {
+				System.out.println(String.format(Locale.US, "%8.3f skipped, not in [0,1[", discount));
+				continue;
+			}
+			MDPSolver solver = new MDPSolver(stateSpace, costs, discount);
+			solver.setVerbose(false);
+			solver.setConvergence(epsilon, maxIterations);
+			solver.setWorkers(workers);
+			solver.solve(algorithm);
+			for (int k = 0; k < costs.length; k++) {
+				evaluator.evaluate(solver.getBestAction(k));
+				System.out.println(String.format(Locale.US, "%8.3f %11.0f %7d %12.2f %10.2f %12.2f %8.3f", discount,
+				        costs[k], solver.getIterations(), evaluator.getRewardPerStep(),
+				        evaluator.getDistancePerStep(), evaluator.getProfitPerStep(costs[k]),
+				        evaluator.getPickupsPerStep()));
+			}
+		}
 	}
 
-	@Override
-	public Action act(Vehicle vehicle, Task availableTask) {
-		Action action;
+	/**
+	 * The moves of the best actions of all policies and their lengths, both
+	 * indexed by policy and state, so that act() only needs an array lookup.
+	 * The move is null if the best action takes the package. Not changed
+	 * once created.
+	 */
+	private static class Moves {
+		private final Move[][] bestMove;
+		private final double[][] moveDistance;
 
-		City currentCity = vehicle.getCurrentCity();
-		State s = null;
+		public Moves(Move[][] bestMove, double[][] moveDistance) {
+			super();
+			this.bestMove = bestMove;
+			this.moveDistance = moveDistance;
+		}
+	}
 
-		if (availableTask == null) {
-			s = getState(currentCity, null);
-			AgentAction a = bestAction.get(s);
-			action = new Move(a.getDestination());
-		} else {
-			s = getState(currentCity, availableTask.deliveryCity);
-			AgentAction a = bestAction.get(s);
-			if (a.isTackingPackage()) {
-				action = new Pickup(availableTask);
-			} else {
-				action = new Move(a.getDestination());
+	private Moves createMoves() {
+		Move[][] moves = new Move[bestAction.length][stateSpace.getNbStates()];
+		double[][] distances = new double[bestAction.length][stateSpace.getNbStates()];
+		for (int k = 0; k < bestAction.length; k++) {
+			for (int s = 0; s < stateSpace.getNbStates(); s++) {
+				if (stateSpace.isValid(s)) {
+					distances[k][s] = stateSpace.getActionDistance(s)[bestAction[k][s]];
+					if (!stateSpace.isTakingPackage(s, bestAction[k][s])) {
+						moves[k][s] = new Move(stateSpace.getCity(stateSpace.getActions(s)[bestAction[k][s]]));
+					}
+				}
 			}
 		}
+		return new Moves(moves, distances);
+	}
 
-		if (numActions >= 1) {
-			System.out.println(
-			        myAgent.name() + ": average profit: " + myAgent.getTotalProfit() / (double) numActions + ")");
+	/**
+	 * starts updating the policies in the background unless an update is
+	 * already running. act() never waits for it.
+	 */
+	private void requestUpdate() {
+		if (updating.compareAndSet(false, true)) {
+			background.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						updatePolicies();
+					} finally {
+						updating.set(false);
+					}
+				}
+			});
 		}
-		numActions++;
-
-		return action;
 	}
 
-	private double R(State s, AgentAction a) {
-		Plan p = new Plan(s.getCurrent(), new Move(a.getDestination()));
-		double costs = myAgent.vehicles().get(0).costPerKm() * p.totalDistance();
+	/**
+	 * re-solves the MDP for the task distribution estimated from our
+	 * observations. Only the transitions are rebuilt, the solve starts from
+	 * the current policies and only runs a few sweeps, the next updates
+	 * continue where it stopped.
+	 */
+	private void updatePolicies() {
+		updateSolver.setStateSpace(stateSpace.withProbabilities(statistics.probabilities(priorWeight)));
+		updateSolver.solve(Algorithm.GAUSS_SEIDEL);
+		for (int k = 0; k < bestAction.length; k++) {
+			stateValue[k] = updateSolver.getStateValue(k);
+			bestAction[k] = updateSolver.getBestAction(k);
+		}
+		moves = createMoves();
+	}
 
-		if (!a.isTackingPackage()) {
-			return -costs;
-		} else {
-			return dist.reward(s.getCurrent(), a.getDestination()) - costs;
+	/**
+	 * @return the index of the policy solved for the cost per km of vehicle
+	 */
+	private int policyOf(Vehicle vehicle) {
+		// a company only has a few vehicles, a scan is cheaper than a map
+		for (int i = 0; i < vehicleIds.length; i++) {
+			if (vehicleIds[i] == vehicle.id()) {
+				return vehiclePolicy[i];
+			}
 		}
+		return costsPerKm.indexOf(vehicle.costPerKm());
 	}
 
-	private double T(State s, AgentAction a, State sp) {
-		// only for states that are not equal and where the
-		// future states current city is different from the
-		// current states current city and where the destination of the action
-		// is equal to the future states current city
-		if (s.equals(sp) || s.getCurrent().equals(sp.getCurrent()) || !sp.getCurrent().equals(a.getDestination())) {
-			return 0;
+	@Override
+	public Action act(Vehicle vehicle, Task availableTask) {
+		long start = System.nanoTime();
+		Action action;
+		Moves current = moves;
+
+		int s = stateSpace.index(vehicle.getCurrentCity(), availableTask == null ? null : availableTask.deliveryCity);
+		int k = policyOf(vehicle);
+		Move move = current.bestMove[k][s];
+		if (statistics != null) {
+			statistics.observe(s);
+			requestUpdate();
 		}
 
-		// verifies (s != sp && s.current != sp.current && sp.current != a.dest)
-		return dist.probability(sp.getCurrent(), sp.getDestination());
-	}
+		if (move == null) {
+			action = new Pickup(availableTask);
+		} else {
+			action = move;
+		}
 
-	private State getState(City current, City dest) {
-		State tmp = new State(current, dest, null);
-		for (State s : listOfStates) {
-			if (s.equals(tmp)) {
-				return s;
+		if (metrics != null) {
+			metrics.record(System.nanoTime() - start, availableTask != null, move == null,
+			        move == null ? availableTask.reward : 0, current.moveDistance[k][s]);
+			if (metrics.getNbActs() % metricsInterval == 0) {
+				// the file is written by the background thread
+				final double profit = myAgent.getTotalProfit();
+				background.execute(new Runnable() {
+					@Override
+					public void run() {
+						metrics.dump(profit);
+					}
+				});
 			}
 		}
-		System.out.println("No state found for " + tmp);
-		System.exit(-1);
-		return null;
+
+		return action;
 	}
 }
@@ -0,0 +1,149 @@
+package benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import model.MDPSolver;
+import model.MDPSolver.Algorithm;
+import model.PolicyEvaluator;
+import model.StateSpace;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Prints the expected profit per step of the policy of every discount factor
+ * on a synthetic task distribution, see evaluate-discounts of ReactiveAgent
+ * for the real one.
+ *
+ * <pre>
+ * java benchmark.DiscountEvaluation topology=config/topology/france.xml agents=config/agents.xml
+ *         cost-per-km=5 epsilon=0.01 discounts=0.5,0.9,0.99
+ * </pre>
+ */
+public class DiscountEvaluation {
+	private String topology = "config/topology/france.xml";
+	private String agents = "config/agents.xml";
+	private double costPerKm = 5;
+	private double epsilon = 0.01;
+	private String discounts = null;
+
+	public static void main(String[] args) {
+		DiscountEvaluation evaluation = new DiscountEvaluation();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i < 0) {
+				System.out.println("Please give the arguments as name=value, not " + arg);
+				System.exit(-1);
+			}
+			evaluation.set(arg.substring(0, i), arg.substring(i + 1));
+		}
+		evaluation.run();
+	}
+
+	private void set(String name, String value) {
+		if (name.equals("topology")) {
+			topology = value;
+		} else if (name.equals("agents")) {
+			agents = value;
+		} else if (name.equals("cost-per-km")) {
+			costPerKm = Double.parseDouble(value);
+		} else if (name.equals("epsilon")) {
+			epsilon = Double.parseDouble(value);
+		} else if (name.equals("discounts")) {
+			discounts = value;
+		} else {
+			System.out.println("Unknown argument " + name);
+			System.exit(-1);
+		}
+	}
+
+	private void run() {
+		Instance instance = topology.matches("\\d+") ? Instance.synthetic(Integer.parseInt(topology)) : Instance
+		        .parse(new File(topology));
+		if (instance == null) {
+			System.exit(-1);
+		}
+
+		List<String> names = new ArrayList<String>();
+		List<Double> factors = new ArrayList<Double>();
+		if (discounts != null) {
+			for (String discount : discounts.split(",")) {
+				names.add("-");
+				factors.add(Double.parseDouble(discount.trim()));
+			}
+		} else {
+			readAgents(names, factors);
+		}
+
+		StateSpace stateSpace = instance.createStateSpace();
+		PolicyEvaluator evaluator = new PolicyEvaluator(stateSpace);
+		System.out.println("Synthetic task distribution on " + instance.getName()
+		        + ", see evaluate-discounts of ReactiveAgent for the real one");
+		System.out.println(String.format(Locale.US, "%-32s %8s %7s %9s %8s %12s %10s %12s %8s", "agent",
+		        "discount", "sweeps", "solve ms", "eval ms", "reward/step", "km/step", "profit/step", "pickups"));
+		for (int i = 0; i < factors.size(); i++) {
+			double discount = factors.get(i);
+			if (discount >= 1 || discount < 0) {
+				System.out.println(String.format(Locale.US, "%-32s %8.3f skipped, not in [0,1[", names.get(i),
+				        discount));
+				continue;
+			}
+			long start = System.nanoTime();
+			MDPSolver solver = new MDPSolver(stateSpace, costPerKm, discount);
+			solver.setVerbose(false);
+			solver.setConvergence(epsilon, Integer.MAX_VALUE);
+			solver.solve(Algorithm.GAUSS_SEIDEL);
+			long solved = System.nanoTime();
+			evaluator.evaluate(solver.getBestAction(0));
+			long evaluated = System.nanoTime();
+
+			System.out.println(String.format(Locale.US, "%-32s %8.3f %7d %9.2f %8.2f %12.2f %10.2f %12.2f %8.3f",
+			        names.get(i), discount, solver.getIterations(), (solved - start) / 1e6,
+			        (evaluated - solved) / 1e6, evaluator.getRewardPerStep(), evaluator.getDistancePerStep(),
+			        evaluator.getProfitPerStep(costPerKm), evaluator.getPickupsPerStep()));
+		}
+	}
+
+	/**
+	 * adds the name and discount factor of every agents.ReactiveAgent of the
+	 * agents file.
+	 */
+	private void readAgents(List<String> names, List<Double> factors) {
+		Document document;
+		try {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new File(agents));
+		} catch (Exception e) {
+			System.out.println("There was a problem reading " + agents + ": " + e.getMessage());
+			System.exit(-1);
+			return;
+		}
+
+		NodeList agentNodes = document.getElementsByTagName("agent");
+		for (int i = 0; i < agentNodes.getLength(); i++) {
+			Element agent = (Element) agentNodes.item(i);
+			String className = null;
+			String discount = null;
+			NodeList sets = agent.getElementsByTagName("set");
+			for (int j = 0; j < sets.getLength(); j++) {
+				Element set = (Element) sets.item(j);
+				if (set.hasAttribute("class-name")) {
+					className = set.getAttribute("class-name");
+				}
+				if (set.hasAttribute("discount-factor")) {
+					discount = set.getAttribute("discount-factor");
+				}
+			}
+			if ("agents.ReactiveAgent".equals(className)) {
+				names.add(agent.getAttribute("name"));
+				// the agent defaults to 0.95 as well
+				factors.add(discount == null ? 0.95 : Double.parseDouble(discount));
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import model.StateSpace;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A topology and a synthetic task distribution reduced to what the StateSpace
+ * needs, so that the model can be used without logist.
+ */
+public class Instance {
+	private static final long SEED = 3590420242192152424L;
+
+	private String name;
+	private int[][] neighbors;
+	private double[][] distance;
+	private double[][] reward;
+	private double[] probability;
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNbCities() {
+		return neighbors.length;
+	}
+
+	public StateSpace createStateSpace() {
+		return new StateSpace(neighbors, distance, reward, probability);
+	}
+
+	/**
+	 * reads the cities and routes of a logist topology file.
+	 *
+	 * @return null if the file cannot be used
+	 */
+	public static Instance parse(File file) {
+		Document document;
+		try {
+			document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		} catch (Exception e) {
+			System.out.println("Skipping " + file + ": " + e.getMessage());
+			return null;
+		}
+
+		NodeList cityNodes = document.getElementsByTagName("city");
+		int n = cityNodes.getLength();
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < n; i++) {
+			index.put(((Element) cityNodes.item(i)).getAttribute("name"), i);
+		}
+
+		double[][] route = new double[n][n];
+		NodeList routeNodes = document.getElementsByTagName("route");
+		for (int i = 0; i < routeNodes.getLength(); i++) {
+			Element r = (Element) routeNodes.item(i);
+			Integer from = index.get(r.getAttribute("from"));
+			Integer to = index.get(r.getAttribute("to"));
+			if (from != null && to != null) {
+				route[from][to] = route[to][from] = Double.parseDouble(r.getAttribute("distance").trim());
+			}
+		}
+
+		String name = file.getName().substring(0, file.getName().length() - ".xml".length());
+		Instance instance = create(name, route, new Random(SEED));
+		if (instance == null) {
+			System.out.println("Skipping " + file + ": the cities are not connected");
+		}
+		return instance;
+	}
+
+	/**
+	 * creates a random topology: the cities lie in a 1000x1000 square and are
+	 * connected to their three nearest cities and along a chain, so that the
+	 * topology is connected.
+	 */
+	public static Instance synthetic(int n) {
+		Random random = new Random(SEED + n);
+		double[][] x = new double[n][2];
+		for (int i = 0; i < n; i++) {
+			x[i][0] = random.nextInt(1000);
+			x[i][1] = random.nextInt(1000);
+		}
+
+		double[][] route = new double[n][n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				order[j] = j;
+			}
+			final double[] d = new double[n];
+			for (int j = 0; j < n; j++) {
+				d[j] = Math.max(1, Math.round(Math.hypot(x[i][0] - x[j][0], x[i][1] - x[j][1])));
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(d[a], d[b]);
+				}
+			});
+			// order[0] is i itself
+			for (int j = 1; j <= 3 && j < n; j++) {
+				route[i][order[j]] = route[order[j]][i] = d[order[j]];
+			}
+			if (i > 0) {
+				route[i][i - 1] = route[i - 1][i] = d[i - 1];
+			}
+		}
+		return create("synthetic-" + n, route, random);
+	}
+
+	/**
+	 * computes the shortest paths of the route matrix and draws a synthetic
+	 * task distribution: uniform task probabilities, a no-task probability in
+	 * [0.2, 0.4] and rewards uniform in [1000, 99999] that do not depend on
+	 * the distance, unlike the short-distances rewards of config/reactive.xml.
+	 *
+	 * @param route
+	 *            the length of the route between two cities, 0 if there is
+	 *            none
+	 * @return null if the topology is not connected
+	 */
+	private static Instance create(String name, double[][] route, Random random) {
+		int n = route.length;
+		Instance instance = new Instance();
+		instance.name = name;
+		instance.neighbors = new int[n][];
+		instance.distance = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			int nbNeighbors = 0;
+			instance.neighbors[i] = new int[n];
+			for (int j = 0; j < n; j++) {
+				if (route[i][j] > 0) {
+					instance.neighbors[i][nbNeighbors++] = j;
+				}
+				instance.distance[i][j] = i == j ? 0 : route[i][j] > 0 ? route[i][j] : Double.POSITIVE_INFINITY;
+			}
+			instance.neighbors[i] = Arrays.copyOf(instance.neighbors[i], nbNeighbors);
+		}
+		// Floyd-Warshall
+		for (int k = 0; k < n; k++) {
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					if (instance.distance[i][k] + instance.distance[k][j] < instance.distance[i][j]) {
+						instance.distance[i][j] = instance.distance[i][k] + instance.distance[k][j];
+					}
+				}
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				if (Double.isInfinite(instance.distance[i][j])) {
+					return null;
+				}
+			}
+		}
+
+		instance.reward = new double[n][n];
+		instance.probability = new double[n * (n + 1)];
+		for (int i = 0; i < n; i++) {
+			double noTask = 0.2 + 0.2 * random.nextDouble();
+			double[] p = new double[n];
+			double total = 0;
+			for (int j = 0; j < n; j++) {
+				if (j != i) {
+					p[j] = random.nextDouble();
+					total += p[j];
+					instance.reward[i][j] = 1000 + random.nextInt(99000);
+				}
+			}
+			for (int j = 0; j < n; j++) {
+				if (j != i) {
+					instance.probability[i * (n + 1) + j] = (1 - noTask) * p[j] / total;
+				}
+			}
+			instance.probability[i * (n + 1) + n] = noTask;
+		}
+		return instance;
+	}
+}
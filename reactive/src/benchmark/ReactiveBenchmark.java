@@ -0,0 +1,165 @@
+package benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import model.MDPSolver;
+import model.MDPSolver.Algorithm;
+import model.StateSpace;
+
+/**
+ * Prints how long building and solving the state space takes for every
+ * topology and MDPSolver.Algorithm.
+ *
+ * <pre>
+ * java benchmark.ReactiveBenchmark topologies=config/topology sizes=20,40,80
+ *         discount=0.95 epsilon=0.01 cost-per-km=5 warmup=2 repetitions=5 workers=4
+ * </pre>
+ */
+public class ReactiveBenchmark {
+	private String topologies = "config/topology";
+	private int[] sizes = { 20, 40, 80 };
+	private double discount = 0.95;
+	private double epsilon = 0.01;
+	private double costPerKm = 5;
+	private int warmup = 2;
+	private int repetitions = 5;
+	private int workers = Runtime.getRuntime().availableProcessors();
+
+	public static void main(String[] args) {
+		ReactiveBenchmark benchmark = new ReactiveBenchmark();
+		for (String arg : args) {
+			int i = arg.indexOf('=');
+			if (i < 0) {
+				System.out.println("Please give the arguments as name=value, not " + arg);
+				System.exit(-1);
+			}
+			benchmark.set(arg.substring(0, i), arg.substring(i + 1));
+		}
+		benchmark.run();
+	}
+
+	private void set(String name, String value) {
+		if (name.equals("topologies")) {
+			topologies = value;
+		} else if (name.equals("sizes")) {
+			String[] parts = value.isEmpty() ? new String[0] : value.split(",");
+			sizes = new int[parts.length];
+			for (int i = 0; i < parts.length; i++) {
+				sizes[i] = Integer.parseInt(parts[i].trim());
+			}
+		} else if (name.equals("discount")) {
+			discount = Double.parseDouble(value);
+		} else if (name.equals("epsilon")) {
+			epsilon = Double.parseDouble(value);
+		} else if (name.equals("cost-per-km")) {
+			costPerKm = Double.parseDouble(value);
+		} else if (name.equals("warmup")) {
+			warmup = Integer.parseInt(value);
+		} else if (name.equals("repetitions")) {
+			repetitions = Integer.parseInt(value);
+		} else if (name.equals("workers")) {
+			workers = Integer.parseInt(value);
+		} else {
+			System.out.println("Unknown argument " + name);
+			System.exit(-1);
+		}
+		if (repetitions < 1 || warmup < 0 || workers < 1) {
+			System.out.println("Please enter repetitions >= 1, warmup >= 0 and workers >= 1");
+			System.exit(-1);
+		}
+	}
+
+	private void run() {
+		List<Instance> instances = new ArrayList<Instance>();
+		File[] files = new File(topologies).listFiles();
+		if (files == null) {
+			System.out.println("No topology directory " + topologies);
+		} else {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.getName().endsWith(".xml")) {
+					Instance instance = Instance.parse(file);
+					if (instance != null) {
+						instances.add(instance);
+					}
+				}
+			}
+		}
+		for (int size : sizes) {
+			instances.add(Instance.synthetic(size));
+		}
+
+		System.out.println(String.format(Locale.US, "%-18s %6s %7s %-16s %9s %9s %7s %10s %9s", "topology",
+		        "cities", "states", "algorithm", "build ms", "solve ms", "sweeps", "alloc MB", "MB/s"));
+		for (Instance instance : instances) {
+			for (Algorithm algorithm : Algorithm.values()) {
+				measure(instance, algorithm);
+			}
+		}
+	}
+
+	/**
+	 * builds and solves the instance warmup + repetitions times and prints
+	 * the medians of the measured repetitions.
+	 */
+	private void measure(Instance instance, Algorithm algorithm) {
+		double[] build = new double[repetitions];
+		double[] solve = new double[repetitions];
+		double[] allocated = new double[repetitions];
+		int sweeps = 0;
+		int nbStates = 0;
+
+		for (int r = -warmup; r < repetitions; r++) {
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			StateSpace stateSpace = instance.createStateSpace();
+			long built = System.nanoTime();
+			MDPSolver solver = new MDPSolver(stateSpace, costPerKm, discount);
+			solver.setVerbose(false);
+			solver.setConvergence(epsilon, Integer.MAX_VALUE);
+			solver.setWorkers(workers);
+			solver.solve(algorithm);
+			long solved = System.nanoTime();
+
+			if (r >= 0) {
+				build[r] = (built - start) / 1e6;
+				solve[r] = (solved - built) / 1e6;
+				allocated[r] = (allocatedBytes() - bytes) / 1e6;
+			}
+			sweeps = solver.getIterations();
+			nbStates = stateSpace.getNbValidStates();
+		}
+
+		double solveMs = median(solve);
+		double allocatedMB = median(allocated);
+		System.out.println(String.format(Locale.US, "%-18s %6d %7d %-16s %9.2f %9.2f %7d %10.2f %9.1f",
+		        instance.getName(), instance.getNbCities(), nbStates, algorithm, median(build), solveMs, sweeps,
+		        allocatedMB, allocatedMB / ((median(build) + solveMs) / 1000)));
+	}
+
+	private static double median(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	/**
+	 * @return the bytes allocated so far by the current thread, -1 if the JVM
+	 *         cannot tell. The worker threads of the PARALLEL algorithm are
+	 *         not included
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread()
+			        .getId());
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,155 @@
+package model;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Runtime metrics of a reactive agent. A ".json" file gets the latest
+ * snapshot, any other file one CSV row per dump.
+ */
+public class AgentMetrics {
+	// act() latencies, bucket i counts the latencies in [2^i, 2^(i+1)[ ns
+	private long[] latencyBuckets = new long[64];
+	private long totalLatency;
+	private long maxLatency;
+
+	private long nbActs;
+	private long nbPickups;
+	private long nbRefusals;
+	private long nbNoTask;
+
+	private double totalReward;
+	private double totalDistance;
+
+	private String name;
+	private File file;
+
+	/**
+	 * @param name
+	 *            the name of the agent written with every dump
+	 * @param file
+	 *            the file the metrics are written to
+	 */
+	public AgentMetrics(String name, String file) {
+		super();
+		this.name = name;
+		this.file = new File(file);
+	}
+
+	/**
+	 * records one call of act().
+	 *
+	 * @param latency
+	 *            the duration of the call in ns
+	 * @param taskAvailable
+	 * @param pickup
+	 *            true if the available task was picked up
+	 * @param reward
+	 *            the reward of the picked up task, 0 otherwise
+	 * @param distance
+	 *            the distance driven until the next call
+	 */
+	public synchronized void record(long latency, boolean taskAvailable, boolean pickup, double reward, double distance) {
+		latencyBuckets[63 - Long.numberOfLeadingZeros(Math.max(latency, 1))]++;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+
+		nbActs++;
+		if (pickup) {
+			nbPickups++;
+		} else if (taskAvailable) {
+			nbRefusals++;
+		} else {
+			nbNoTask++;
+		}
+		totalReward += reward;
+		totalDistance += distance;
+	}
+
+	public synchronized long getNbActs() {
+		return nbActs;
+	}
+
+	/**
+	 * @return an upper bound of the q-quantile of the act() latency in ns
+	 */
+	public synchronized long latencyQuantile(double q) {
+		long rank = (long) Math.ceil(q * nbActs);
+		long count = 0;
+		for (int i = 0; i < latencyBuckets.length; i++) {
+			count += latencyBuckets[i];
+			if (count >= rank && count > 0) {
+				return Math.min((1L << (i + 1)) - 1, maxLatency);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * writes the current metrics to the file and prints a summary. Only the
+	 * snapshot of the counters holds the lock of record(), the file is
+	 * written without it.
+	 *
+	 * @param profit
+	 *            the total profit of the agent
+	 */
+	public void dump(double profit) {
+		boolean json = file.getName().endsWith(".json");
+		String summary;
+		String line;
+		synchronized (this) {
+			double pickupRatio = nbPickups + nbRefusals == 0 ? 0 : nbPickups / (double) (nbPickups + nbRefusals);
+			double rewardPerKm = totalDistance == 0 ? 0 : totalReward / totalDistance;
+			double meanLatency = nbActs == 0 ? 0 : totalLatency / (double) nbActs;
+
+			summary = name + ": " + nbActs + " actions, average profit: " + (nbActs == 0 ? 0 : profit / nbActs)
+			        + ", reward per km: " + rewardPerKm + ", pickup ratio: " + pickupRatio;
+			if (json) {
+				line = String.format(Locale.US,
+				        "{\"agent\": \"%s\", \"time\": %d, \"acts\": %d, \"pickups\": %d, \"refusals\": %d, "
+				                + "\"noTask\": %d, \"pickupRatio\": %f, \"reward\": %f, \"distance\": %f, "
+				                + "\"rewardPerKm\": %f, \"profit\": %f, \"latencyMeanNs\": %f, \"latencyP50Ns\": %d, "
+				                + "\"latencyP99Ns\": %d, \"latencyMaxNs\": %d}%n",
+				        name, System.currentTimeMillis(), nbActs, nbPickups, nbRefusals, nbNoTask, pickupRatio,
+				        totalReward, totalDistance, rewardPerKm, profit, meanLatency, latencyQuantile(0.5),
+				        latencyQuantile(0.99), maxLatency);
+			} else {
+				line = String.format(Locale.US, "%s,%d,%d,%d,%d,%d,%f,%f,%f,%f,%f,%f,%d,%d,%d%n", name,
+				        System.currentTimeMillis(), nbActs, nbPickups, nbRefusals, nbNoTask, pickupRatio,
+				        totalReward, totalDistance, rewardPerKm, profit, meanLatency, latencyQuantile(0.5),
+				        latencyQuantile(0.99), maxLatency);
+			}
+		}
+		System.out.println(summary);
+
+		// the background thread and the shutdown hook may dump at once
+		synchronized (file) {
+			boolean header = json || !file.exists();
+			Writer out = null;
+			try {
+				if (file.getParentFile() != null) {
+					file.getParentFile().mkdirs();
+				}
+				out = new FileWriter(file, !json);
+				if (header && !json) {
+					out.write("agent,time,acts,pickups,refusals,noTask,pickupRatio,reward,distance,rewardPerKm,"
+					        + "profit,latencyMeanNs,latencyP50Ns,latencyP99Ns,latencyMaxNs\n");
+				}
+				out.write(line);
+			} catch (IOException e) {
+				System.out.println("There was a problem writing the metrics to " + file + ": " + e.getMessage());
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						// nothing we can do
+					}
+				}
+			}
+		}
+	}
+}
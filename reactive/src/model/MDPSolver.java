@@ -0,0 +1,574 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Solves the reactive MDP of a {@link StateSpace}, one policy per cost per km.
+ * The entry of policy k for state s is at s * nbPolicies + k.
+ */
+public class MDPSolver {
+
+	public enum Algorithm {
+		// synchronous sweeps, every backup uses the values of the last sweep
+		JACOBI,
+		// in-place sweeps, backups use the values updated in the same sweep
+		GAUSS_SEIDEL,
+		// backups ordered by a priority queue on the Bellman error
+		PRIORITIZED,
+		// alternates policy evaluation and greedy policy improvement
+		POLICY_ITERATION,
+		// synchronous sweeps with the cities split between several threads
+		PARALLEL
+	}
+
+	private StateSpace stateSpace;
+	private double discount;
+	private int nbPolicies;
+	// R(s, a) of every action and policy, the entry of policy k for action a
+	// is reward[s][a * nbPolicies + k]
+	private double[][] reward;
+
+	// we stop once the value of no state changes by more than epsilon or
+	// after maxIterations sweeps
+	private double epsilon = 0.01;
+	private int maxIterations = 10000;
+	// number of threads used by PARALLEL
+	private int workers = Runtime.getRuntime().availableProcessors();
+	// print the progress of every sweep
+	private boolean verbose = true;
+
+	private double[] stateValue;
+	// the value vector written by a parallel sweep
+	private double[] nextValue;
+	private int[] bestAction;
+	private int iterations;
+	private double residual;
+
+	public MDPSolver(StateSpace stateSpace, double costPerKm, double discount) {
+		this(stateSpace, new double[] { costPerKm }, discount);
+	}
+
+	/**
+	 * @param stateSpace
+	 * @param costPerKm
+	 *            one policy is solved for each cost
+	 * @param discount
+	 */
+	public MDPSolver(StateSpace stateSpace, double[] costPerKm, double discount) {
+		super();
+		this.stateSpace = stateSpace;
+		this.discount = discount;
+		nbPolicies = costPerKm.length;
+		stateValue = new double[stateSpace.getNbStates() * nbPolicies];
+		bestAction = new int[stateSpace.getNbStates() * nbPolicies];
+		createRewards(costPerKm);
+	}
+
+	/**
+	 * precomputes R(s, a) so that the sweeps only need to read it.
+	 *
+	 * @param costPerKm
+	 */
+	private void createRewards(double[] costPerKm) {
+		reward = new double[stateSpace.getNbStates()][];
+		for (int s = 0; s < stateSpace.getNbStates(); s++) {
+			if (stateSpace.isValid(s)) {
+				double[] distance = stateSpace.getActionDistance(s);
+				double[] taskReward = stateSpace.getActionReward(s);
+				reward[s] = new double[distance.length * nbPolicies];
+				for (int a = 0; a < distance.length; a++) {
+					for (int k = 0; k < nbPolicies; k++) {
+						reward[s][a * nbPolicies + k] = taskReward[a] - costPerKm[k] * distance[a];
+					}
+				}
+			}
+		}
+	}
+
+	public void setConvergence(double epsilon, int maxIterations) {
+		this.epsilon = epsilon;
+		this.maxIterations = maxIterations;
+	}
+
+	public void setWorkers(int workers) {
+		this.workers = workers;
+	}
+
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * starts the next solve of policy k from a previous solution instead of
+	 * zero, which needs far fewer sweeps if the MDP only changed a little.
+	 *
+	 * @param k
+	 * @param value
+	 * @param action
+	 */
+	public void setInitialPolicy(int k, double[] value, int[] action) {
+		for (int s = 0; s < stateSpace.getNbStates(); s++) {
+			stateValue[s * nbPolicies + k] = value[s];
+			bestAction[s * nbPolicies + k] = action[s];
+		}
+	}
+
+	/**
+	 * replaces the transitions used by the next solve. The rewards and the
+	 * current values and policies are kept, so the next solve continues from
+	 * them.
+	 *
+	 * @param stateSpace
+	 *            a state space with the same states, actions and rewards, as
+	 *            returned by StateSpace.withProbabilities
+	 */
+	public void setStateSpace(StateSpace stateSpace) {
+		if (stateSpace.getNbStates() != this.stateSpace.getNbStates()) {
+			throw new IllegalArgumentException("the state space has " + stateSpace.getNbStates() + " states instead of "
+			        + this.stateSpace.getNbStates());
+		}
+		this.stateSpace = stateSpace;
+	}
+
+	public void solve(Algorithm algorithm) {
+		log("Run MDP-Algorithm " + algorithm);
+		long startTime = System.currentTimeMillis();
+
+		switch (algorithm) {
+		case JACOBI:
+			residual = valueIteration(false);
+			break;
+		case GAUSS_SEIDEL:
+			residual = valueIteration(true);
+			break;
+		case PRIORITIZED:
+			residual = prioritizedSweeping();
+			break;
+		case POLICY_ITERATION:
+			residual = policyIteration();
+			break;
+		case PARALLEL:
+			residual = parallelValueIteration();
+			break;
+		default:
+			throw new AssertionError("Should not happen.");
+		}
+
+		if (residual > epsilon) {
+			log("MDP did not converge after " + iterations + " sweeps, residual " + residual);
+		}
+		log("MDP done after " + iterations + " sweeps (" + (System.currentTimeMillis() - startTime)
+		        + "ms)");
+	}
+
+	/**
+	 * runs value iteration sweeps until the max-norm of the change of the value
+	 * vector is at most epsilon.
+	 *
+	 * @param inPlace
+	 *            true to update the values during the sweep (Gauss-Seidel),
+	 *            false to only use the values of the previous sweep (Jacobi)
+	 * @return the residual of the last sweep
+	 */
+	private double valueIteration(boolean inPlace) {
+		double[] nextValue = inPlace ? stateValue : new double[stateValue.length];
+		double[] value = new double[nbPolicies];
+		double[] q = new double[nbPolicies];
+		double residual;
+		iterations = 0;
+
+		do {
+			long sweepStartTime = System.currentTimeMillis();
+			residual = 0;
+			for (int s = 0; s < stateSpace.getNbStates(); s++) {
+				if (stateSpace.isValid(s)) {
+					backup(s, stateValue, value, q);
+					for (int k = 0; k < nbPolicies; k++) {
+						residual = Math.max(residual, Math.abs(value[k] - stateValue[s * nbPolicies + k]));
+						nextValue[s * nbPolicies + k] = value[k];
+					}
+				}
+			}
+			if (!inPlace) {
+				double[] tmp = stateValue;
+				stateValue = nextValue;
+				nextValue = tmp;
+			}
+			iterations++;
+			log("Sweep " + iterations + ": residual " + residual + " ("
+			        + (System.currentTimeMillis() - sweepStartTime) + "ms)");
+		} while (residual > epsilon && iterations < maxIterations);
+
+		return residual;
+	}
+
+	/**
+	 * Runs Jacobi sweeps where the backups of different cities are done by
+	 * different threads. Within a sweep every backup only reads stateValue and
+	 * writes its own entry of nextValue and bestAction, so the threads never
+	 * need to synchronize. The two value vectors are swapped between sweeps.
+	 * The cities are split in a few more blocks than there are workers so that
+	 * a slow block does not leave the other threads idle.
+	 *
+	 * @return the residual of the last sweep
+	 */
+	private double parallelValueIteration() {
+		int nbCities = stateSpace.getNbCities();
+		int nbBlocks = Math.min(nbCities, workers * 4);
+		List<SweepTask> tasks = new ArrayList<SweepTask>();
+		for (int block = 0; block < nbBlocks; block++) {
+			tasks.add(new SweepTask(block * nbCities / nbBlocks, (block + 1) * nbCities / nbBlocks));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		nextValue = new double[stateValue.length];
+		double residual;
+		iterations = 0;
+
+		try {
+			do {
+				long sweepStartTime = System.currentTimeMillis();
+				residual = 0;
+				for (Future<Double> blockResidual : executor.invokeAll(tasks)) {
+					residual = Math.max(residual, blockResidual.get());
+				}
+				double[] tmp = stateValue;
+				stateValue = nextValue;
+				nextValue = tmp;
+				iterations++;
+				log("Sweep " + iterations + ": residual " + residual + " ("
+				        + (System.currentTimeMillis() - sweepStartTime) + "ms)");
+			} while (residual > epsilon && iterations < maxIterations);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+			nextValue = null;
+		}
+
+		return residual;
+	}
+
+	/**
+	 * Backs up all states of the cities [fromCity, toCity[ for a parallel
+	 * sweep and returns the residual of these states.
+	 */
+	private class SweepTask implements Callable<Double> {
+		private int fromState;
+		private int toState;
+		// scratch arrays of this task's backups
+		private double[] value = new double[nbPolicies];
+		private double[] q = new double[nbPolicies];
+
+		public SweepTask(int fromCity, int toCity) {
+			super();
+			// the states of a city are stored next to each other
+			fromState = stateSpace.index(fromCity, 0);
+			toState = stateSpace.index(toCity, 0);
+		}
+
+		@Override
+		public Double call() {
+			double residual = 0;
+			for (int s = fromState; s < toState; s++) {
+				if (stateSpace.isValid(s)) {
+					backup(s, stateValue, value, q);
+					for (int k = 0; k < nbPolicies; k++) {
+						residual = Math.max(residual, Math.abs(value[k] - stateValue[s * nbPolicies + k]));
+						nextValue[s * nbPolicies + k] = value[k];
+					}
+				}
+			}
+			return residual;
+		}
+	}
+
+	/**
+	 * Backs up the state with the largest Bellman error first. The priority of
+	 * a state is an upper bound of its Bellman error. When a successor sp of
+	 * action a changes by delta, Q(s, a) changes by at most discount * T(s, a,
+	 * sp) * delta. We sum these changes per action since the last backup of s
+	 * and the bound is the largest of these sums, plus the initial error for
+	 * states that have not been backed up yet. Once the highest priority is at
+	 * most epsilon no backup would change any value by more than epsilon. When
+	 * solving several policies a state's delta is its largest change over all
+	 * policies, which bounds the error of each of them.
+	 *
+	 * @return the highest remaining priority
+	 */
+	private double prioritizedSweeping() {
+		int nbValidStates = stateSpace.getNbValidStates();
+		StateQueue queue = new StateQueue(stateSpace.getNbStates(), epsilon);
+		double[] initialError = new double[stateSpace.getNbStates()];
+		// accumulated change of Q(s, a) since the last backup of s
+		double[][] pendingChange = new double[stateSpace.getNbStates()][];
+		double[] value = new double[nbPolicies];
+		double[] q = new double[nbPolicies];
+
+		// one sweep to get the initial Bellman errors
+		for (int s = 0; s < stateSpace.getNbStates(); s++) {
+			if (stateSpace.isValid(s)) {
+				backup(s, stateValue, value, q);
+				for (int k = 0; k < nbPolicies; k++) {
+					initialError[s] = Math.max(initialError[s], Math.abs(value[k] - stateValue[s * nbPolicies + k]));
+				}
+				pendingChange[s] = new double[stateSpace.getActions(s).length];
+				queue.raise(s, initialError[s]);
+			}
+		}
+
+		long backups = 0;
+		long maxBackups = (long) maxIterations * nbValidStates;
+		long sweepStartTime = System.currentTimeMillis();
+		while (!queue.isEmpty() && backups < maxBackups) {
+			int s = queue.poll();
+			backup(s, stateValue, value, q);
+			double delta = 0;
+			for (int k = 0; k < nbPolicies; k++) {
+				delta = Math.max(delta, Math.abs(value[k] - stateValue[s * nbPolicies + k]));
+				stateValue[s * nbPolicies + k] = value[k];
+			}
+			double change = discount * stateSpace.getProbability(s) * delta;
+			initialError[s] = 0;
+			for (int a = 0; a < pendingChange[s].length; a++) {
+				pendingChange[s][a] = 0;
+			}
+			backups++;
+
+			if (change > 0) {
+				int city = stateSpace.getCurrent(s);
+				int[] predecessors = stateSpace.getPredecessors(city);
+				int[] predecessorActions = stateSpace.getPredecessorActions(city);
+				for (int i = 0; i < predecessors.length; i++) {
+					int p = predecessors[i];
+					pendingChange[p][predecessorActions[i]] += change;
+					queue.raise(p, initialError[p] + pendingChange[p][predecessorActions[i]]);
+				}
+			}
+
+			if (backups % nbValidStates == 0) {
+				// report progress once per sweep worth of backups
+				log("Sweep " + backups / nbValidStates + ": residual " + queue.maxPriority() + " ("
+				        + (System.currentTimeMillis() - sweepStartTime) + "ms)");
+				sweepStartTime = System.currentTimeMillis();
+			}
+		}
+		iterations = (int) ((backups + nbValidStates - 1) / nbValidStates);
+
+		return queue.maxPriority();
+	}
+
+	/**
+	 * Evaluates the current policy by solving V = R + discount * T V with
+	 * in-place (Gauss-Seidel) iterations over the sparse transitions, warm
+	 * started from the value of the previous policy, then makes the policy
+	 * greedy with respect to that value. We stop as soon as no state changes
+	 * its action. Sweeps of the evaluation count as iterations.
+	 *
+	 * @return the Bellman residual of the last improvement step
+	 */
+	private double policyIteration() {
+		double[] q = new double[nbPolicies];
+		double[] maxValue = new double[nbPolicies];
+		int[] previousAction = new int[nbPolicies];
+		double residual;
+		int changed;
+		int step = 0;
+		iterations = 0;
+
+		do {
+			long stepStartTime = System.currentTimeMillis();
+
+			// policy evaluation
+			int sweeps = 0;
+			double evaluationResidual;
+			do {
+				evaluationResidual = 0;
+				for (int s = 0; s < stateSpace.getNbStates(); s++) {
+					if (stateSpace.isValid(s)) {
+						for (int k = 0; k < nbPolicies; k++) {
+							int i = s * nbPolicies + k;
+							double value = Q(s, bestAction[i], k, stateValue);
+							evaluationResidual = Math.max(evaluationResidual, Math.abs(value - stateValue[i]));
+							stateValue[i] = value;
+						}
+					}
+				}
+				sweeps++;
+				iterations++;
+			} while (evaluationResidual > epsilon && iterations < maxIterations);
+
+			// policy improvement. We only switch to strictly better actions,
+			// otherwise two equally good actions could make us loop forever
+			changed = 0;
+			residual = 0;
+			for (int s = 0; s < stateSpace.getNbStates(); s++) {
+				if (stateSpace.isValid(s)) {
+					int offset = s * nbPolicies;
+					for (int k = 0; k < nbPolicies; k++) {
+						previousAction[k] = bestAction[offset + k];
+						maxValue[k] = Q(s, previousAction[k], k, stateValue);
+					}
+					for (int a = 0; a < stateSpace.getActions(s).length; a++) {
+						Q(s, a, stateValue, q);
+						for (int k = 0; k < nbPolicies; k++) {
+							if (q[k] > maxValue[k]) {
+								maxValue[k] = q[k];
+								bestAction[offset + k] = a;
+							}
+						}
+					}
+					for (int k = 0; k < nbPolicies; k++) {
+						if (bestAction[offset + k] != previousAction[k]) {
+							changed++;
+						}
+						residual = Math.max(residual, Math.abs(maxValue[k] - stateValue[offset + k]));
+					}
+				}
+			}
+			step++;
+			log("Policy step " + step + ": " + changed + " actions changed after " + sweeps
+			        + " evaluation sweeps, residual " + residual + " (" + (System.currentTimeMillis() - stepStartTime)
+			        + "ms)");
+		} while (changed > 0 && iterations < maxIterations);
+
+		return residual;
+	}
+
+	/**
+	 * computes the Bellman backup of state s for every policy and updates its
+	 * best actions.
+	 *
+	 * @param s
+	 * @param values
+	 *            the value vector used for the successor states
+	 * @param value
+	 *            receives the new value of s for every policy
+	 * @param q
+	 *            scratch array of nbPolicies entries
+	 */
+	private void backup(int s, double[] values, double[] value, double[] q) {
+		int offset = s * nbPolicies;
+		for (int k = 0; k < nbPolicies; k++) {
+			value[k] = -Double.MAX_VALUE;
+		}
+
+		for (int a = 0; a < stateSpace.getActions(s).length; a++) {
+			Q(s, a, values, q);
+			for (int k = 0; k < nbPolicies; k++) {
+				if (q[k] >= value[k]) {
+					value[k] = q[k];
+					bestAction[offset + k] = a;
+				}
+			}
+		}
+	}
+
+	/**
+	 * computes the expected value of taking action a in state s given the
+	 * value vector of the successor states, for every policy.
+	 *
+	 * @param q
+	 *            receives the value of every policy
+	 */
+	private void Q(int s, int a, double[] values, double[] q) {
+		if (nbPolicies == 1) {
+			q[0] = Q(s, a, 0, values);
+			return;
+		}
+		int city = stateSpace.getActions(s)[a];
+		int[] successors = stateSpace.getSuccessors(city);
+		double[] probabilities = stateSpace.getProbabilities(city);
+		for (int k = 0; k < nbPolicies; k++) {
+			q[k] = 0;
+		}
+		// every successor and its probability is read once for all policies,
+		// the values of the policies for a successor are next to each other
+		for (int i = 0; i < successors.length; i++) {
+			double probability = probabilities[i];
+			int offset = successors[i] * nbPolicies;
+			for (int k = 0; k < nbPolicies; k++) {
+				q[k] += probability * values[offset + k];
+			}
+		}
+		int offset = a * nbPolicies;
+		for (int k = 0; k < nbPolicies; k++) {
+			q[k] = reward[s][offset + k] + discount * q[k];
+		}
+	}
+
+	/**
+	 * @return the expected value of taking action a in state s for policy k
+	 */
+	private double Q(int s, int a, int k, double[] values) {
+		int city = stateSpace.getActions(s)[a];
+		int[] successors = stateSpace.getSuccessors(city);
+		double[] probabilities = stateSpace.getProbabilities(city);
+		double sum = 0;
+		if (nbPolicies == 1) {
+			for (int i = 0; i < successors.length; i++) {
+				sum += probabilities[i] * values[successors[i]];
+			}
+		} else {
+			for (int i = 0; i < successors.length; i++) {
+				sum += probabilities[i] * values[successors[i] * nbPolicies + k];
+			}
+		}
+		return reward[s][a * nbPolicies + k] + discount * sum;
+	}
+
+	private void log(String message) {
+		if (verbose) {
+			System.out.println(message);
+		}
+	}
+
+	public int getNbPolicies() {
+		return nbPolicies;
+	}
+
+	/**
+	 * @return the value vector of policy k
+	 */
+	public double[] getStateValue(int k) {
+		double[] value = new double[stateSpace.getNbStates()];
+		for (int s = 0; s < value.length; s++) {
+			value[s] = stateValue[s * nbPolicies + k];
+		}
+		return value;
+	}
+
+	/**
+	 * @return the best action of every state for policy k
+	 */
+	public int[] getBestAction(int k) {
+		int[] action = new int[stateSpace.getNbStates()];
+		for (int s = 0; s < action.length; s++) {
+			action[s] = bestAction[s * nbPolicies + k];
+		}
+		return action;
+	}
+
+	/**
+	 * @return true if the last solve reached epsilon before maxIterations
+	 */
+	public boolean isConverged() {
+		return residual <= epsilon;
+	}
+
+	/**
+	 * @return the number of sweeps of the last solve
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+}
@@ -0,0 +1,166 @@
+package model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stores converged policies on disk, keyed by a hash of the state space,
+ * cost per km, discount factor and epsilon.
+ */
+public class PolicyCache {
+	private static final int MAGIC = 0x52504331; // "RPC1"
+	private static final int HEADER_SIZE = 4 + 4 + 8;
+
+	private File directory;
+
+	/**
+	 * @param directory
+	 *            the directory the policies are stored in. It is created when
+	 *            the first policy is stored
+	 */
+	public PolicyCache(String directory) {
+		super();
+		this.directory = new File(directory);
+	}
+
+	/**
+	 * @return a 64 bit hash of everything the policy depends on
+	 */
+	public long key(StateSpace stateSpace, double costPerKm, double discount, double epsilon) {
+		long hash = hash(0, stateSpace.getNbCities());
+		for (int s = 0; s < stateSpace.getNbStates(); s++) {
+			if (stateSpace.isValid(s)) {
+				int[] actions = stateSpace.getActions(s);
+				for (int a = 0; a < actions.length; a++) {
+					hash = hash(hash, actions[a]);
+					hash = hash(hash, Double.doubleToLongBits(stateSpace.getActionDistance(s)[a]));
+					hash = hash(hash, Double.doubleToLongBits(stateSpace.getActionReward(s)[a]));
+				}
+			}
+		}
+		for (int city = 0; city < stateSpace.getNbCities(); city++) {
+			int[] successors = stateSpace.getSuccessors(city);
+			for (int i = 0; i < successors.length; i++) {
+				hash = hash(hash, successors[i]);
+				hash = hash(hash, Double.doubleToLongBits(stateSpace.getProbabilities(city)[i]));
+			}
+		}
+		hash = hash(hash, Double.doubleToLongBits(costPerKm));
+		hash = hash(hash, Double.doubleToLongBits(discount));
+		hash = hash(hash, Double.doubleToLongBits(epsilon));
+		return hash;
+	}
+
+	/**
+	 * mixes value into hash (the finalizer of MurmurHash3), so that every bit
+	 * of the input changes about half of the bits of the result.
+	 */
+	private long hash(long hash, long value) {
+		long h = (hash ^ value) * 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h + 0x9e3779b97f4a7c15L;
+	}
+
+	/**
+	 * loads the policy stored for key into stateValue and bestAction.
+	 *
+	 * @return true if a matching policy was found
+	 */
+	public boolean load(long key, double[] stateValue, int[] bestAction) {
+		File file = file(key);
+		if (!file.isFile() || file.length() != HEADER_SIZE + 12L * stateValue.length) {
+			return false;
+		}
+
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != stateValue.length) {
+				return false;
+			}
+			if (buffer.getLong() != key) {
+				return false;
+			}
+			buffer.asDoubleBuffer().get(stateValue);
+			buffer.position(buffer.position() + 8 * stateValue.length);
+			buffer.asIntBuffer().get(bestAction);
+			return true;
+		} catch (IOException e) {
+			System.out.println("There was a problem loading the policy " + file + ": " + e.getMessage());
+			return false;
+		} finally {
+			close(in);
+		}
+	}
+
+	/**
+	 * stores the policy for key. Failing to store it only means that the next
+	 * run has to solve the MDP again.
+	 */
+	public void store(long key, double[] stateValue, int[] bestAction) {
+		File file = file(key);
+		// write to a temporary file first so that a concurrent run never
+		// sees a half written policy. The name is unique, so runs storing the
+		// same key at once never write to each other's file
+		File tmp = null;
+
+		RandomAccessFile out = null;
+		try {
+			directory.mkdirs();
+			tmp = File.createTempFile("policy-", ".tmp", directory);
+			out = new RandomAccessFile(tmp, "rw");
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 12 * stateValue.length);
+			buffer.putInt(MAGIC);
+			buffer.putInt(stateValue.length);
+			buffer.putLong(key);
+			buffer.asDoubleBuffer().put(stateValue);
+			buffer.position(buffer.position() + 8 * stateValue.length);
+			buffer.asIntBuffer().put(bestAction);
+			buffer.rewind();
+			out.setLength(0);
+			while (buffer.hasRemaining()) {
+				out.getChannel().write(buffer);
+			}
+			out.close();
+			out = null;
+			if (!tmp.renameTo(file)) {
+				// e.g. on Windows, where the target must not exist
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					throw new IOException("cannot rename " + tmp);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println("There was a problem storing the policy " + file + ": " + e.getMessage());
+		} finally {
+			close(out);
+			if (tmp != null) {
+				// still there if the policy was not renamed into place
+				tmp.delete();
+			}
+		}
+	}
+
+	private File file(long key) {
+		return new File(directory, "policy-" + Long.toHexString(key) + ".bin");
+	}
+
+	private void close(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				// nothing we can do
+			}
+		}
+	}
+}
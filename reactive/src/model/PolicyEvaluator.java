@@ -0,0 +1,139 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Computes the expected reward per step of a policy from the stationary
+ * distribution of the Markov chain it induces.
+ */
+public class PolicyEvaluator {
+	private StateSpace stateSpace;
+	private double epsilon = 1e-12;
+	private int maxIterations = 100000;
+
+	private double[] distribution;
+	private int iterations;
+	private double reward;
+	private double distance;
+	private double pickups;
+
+	public PolicyEvaluator(StateSpace stateSpace) {
+		super();
+		this.stateSpace = stateSpace;
+	}
+
+	/**
+	 * @param epsilon
+	 *            the L1 change of the distribution at which the power
+	 *            iteration stops
+	 * @param maxIterations
+	 */
+	public void setConvergence(double epsilon, int maxIterations) {
+		this.epsilon = epsilon;
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * computes the stationary distribution of the chain induced by the
+	 * policy and the expected reward, distance and pickups per step.
+	 *
+	 * @param bestAction
+	 *            the index of the action taken in every state, as returned by
+	 *            MDPSolver.getBestAction
+	 */
+	public void evaluate(int[] bestAction) {
+		int nbCities = stateSpace.getNbCities();
+		// start like a vehicle that was dropped in a random city
+		distribution = new double[stateSpace.getNbStates()];
+		for (int s = 0; s < distribution.length; s++) {
+			if (stateSpace.isValid(s)) {
+				distribution[s] = stateSpace.getProbability(s) / nbCities;
+			}
+		}
+
+		double[] arriving = new double[nbCities];
+		double change;
+		iterations = 0;
+		do {
+			Arrays.fill(arriving, 0);
+			for (int s = 0; s < distribution.length; s++) {
+				if (distribution[s] > 0) {
+					arriving[stateSpace.getActions(s)[bestAction[s]]] += distribution[s];
+				}
+			}
+			// the chain may be periodic, e.g. when the policy always goes
+			// back and forth between two cities. Averaging with the previous
+			// distribution (a lazy chain) keeps the stationary distribution
+			// and makes the iteration converge
+			change = 0;
+			for (int city = 0; city < nbCities; city++) {
+				int[] successors = stateSpace.getSuccessors(city);
+				double[] probabilities = stateSpace.getProbabilities(city);
+				for (int i = 0; i < successors.length; i++) {
+					int s = successors[i];
+					double next = 0.5 * (distribution[s] + arriving[city] * probabilities[i]);
+					change += Math.abs(next - distribution[s]);
+					distribution[s] = next;
+				}
+			}
+			iterations++;
+		} while (change > epsilon && iterations < maxIterations);
+
+		reward = 0;
+		distance = 0;
+		pickups = 0;
+		for (int s = 0; s < distribution.length; s++) {
+			if (distribution[s] > 0) {
+				int a = bestAction[s];
+				reward += distribution[s] * stateSpace.getActionReward(s)[a];
+				distance += distribution[s] * stateSpace.getActionDistance(s)[a];
+				if (stateSpace.isTakingPackage(s, a)) {
+					pickups += distribution[s];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the fraction of steps spent in each state
+	 */
+	public double[] getDistribution() {
+		return distribution;
+	}
+
+	/**
+	 * @return the number of power iteration steps of the last evaluation
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the expected task reward earned per step
+	 */
+	public double getRewardPerStep() {
+		return reward;
+	}
+
+	/**
+	 * @return the expected distance driven per step
+	 */
+	public double getDistancePerStep() {
+		return distance;
+	}
+
+	/**
+	 * @return the expected profit per step of a vehicle with that cost per km,
+	 *         comparable to the average profit of a simulation
+	 */
+	public double getProfitPerStep(double costPerKm) {
+		return reward - costPerKm * distance;
+	}
+
+	/**
+	 * @return the fraction of steps in which a task is picked up
+	 */
+	public double getPickupsPerStep() {
+		return pickups;
+	}
+}
@@ -0,0 +1,116 @@
+package model;
+
+/**
+ * Indexed binary max-heap of states keyed on their Bellman error, for
+ * prioritized sweeping.
+ */
+public class StateQueue {
+	private int[] heap;
+	// position of each state in the heap, -1 if it is not queued
+	private int[] position;
+	private double[] priority;
+	private int size;
+	private double threshold;
+
+	/**
+	 * @param nbStates
+	 *            states must be in [0, nbStates[
+	 * @param threshold
+	 *            states are only queued once their priority is above it
+	 */
+	public StateQueue(int nbStates, double threshold) {
+		super();
+		this.threshold = threshold;
+		heap = new int[nbStates];
+		position = new int[nbStates];
+		priority = new double[nbStates];
+		for (int s = 0; s < nbStates; s++) {
+			position[s] = -1;
+		}
+	}
+
+	/**
+	 * raises the priority of state s to p if it is lower, queuing the state
+	 * once its priority is above the threshold.
+	 *
+	 * @param s
+	 * @param p
+	 */
+	public void raise(int s, double p) {
+		if (p <= priority[s]) {
+			return;
+		}
+		priority[s] = p;
+		if (p <= threshold) {
+			return;
+		}
+		if (position[s] == -1) {
+			position[s] = size;
+			heap[size++] = s;
+		}
+		siftUp(position[s]);
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the highest priority, 0 if the queue is empty. All states that
+	 *         are not queued have a priority of at most the threshold
+	 */
+	public double maxPriority() {
+		return size == 0 ? 0 : priority[heap[0]];
+	}
+
+	/**
+	 * removes the state with the highest priority and resets its priority.
+	 *
+	 * @return the removed state
+	 */
+	public int poll() {
+		int s = heap[0];
+		size--;
+		if (size > 0) {
+			heap[0] = heap[size];
+			position[heap[0]] = 0;
+			siftDown(0);
+		}
+		position[s] = -1;
+		priority[s] = 0;
+		return s;
+	}
+
+	private void siftUp(int i) {
+		int s = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (priority[heap[parent]] >= priority[s]) {
+				break;
+			}
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = s;
+		position[s] = i;
+	}
+
+	private void siftDown(int i) {
+		int s = heap[i];
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && priority[heap[child + 1]] > priority[heap[child]]) {
+				child++;
+			}
+			if (priority[s] >= priority[heap[child]]) {
+				break;
+			}
+			heap[i] = heap[child];
+			position[heap[i]] = i;
+			i = child;
+		}
+		heap[i] = s;
+		position[s] = i;
+	}
+}
@@ -0,0 +1,399 @@
+package model;
+
+import java.util.Arrays;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology.City;
+
+/**
+ * Dense encoding of the reactive states: (current, destination) is stored at
+ * current * (nbCities + 1) + destination, destination nbCities meaning no
+ * task. Action 0 of a state with a task takes the task.
+ */
+public class StateSpace {
+	private City[] cities;
+	private int nbCities;
+	private int nbStates;
+	private int noTask;
+	private int nbValidStates;
+
+	private int[][] actions;
+	// per state and action: the distance driven and the reward of the
+	// delivered task (0 if the action refuses the task)
+	private double[][] actionDistance;
+	private double[][] actionReward;
+
+	// the states that have an action moving to a city and the index of that
+	// action, indexed by city. A change of the value of a state in that city
+	// can only change the Bellman backup of these states
+	private int[][] predecessors;
+	private int[][] predecessorActions;
+
+	// sparse transition table: the states reachable by moving to a city and
+	// their probabilities, indexed by city
+	private int[][] successors;
+	private double[][] probabilities;
+	// the probability of each state once its city has been reached
+	private double[] stateProbability;
+
+	public StateSpace(ShortestPaths paths, TaskDistribution dist) {
+		this(paths, dist, null);
+	}
+
+	/**
+	 * @param paths
+	 *            the shortest paths of the topology
+	 * @param dist
+	 *            the distribution the rewards are taken from
+	 * @param probability
+	 *            the probability of every state once its city is reached,
+	 *            indexed like the states. If null the probabilities of dist
+	 *            are used
+	 */
+	public StateSpace(ShortestPaths paths, TaskDistribution dist, double[] probability) {
+		this(cities(paths), paths, dist, probability);
+	}
+
+	private StateSpace(City[] cities, ShortestPaths paths, TaskDistribution dist, double[] probability) {
+		this(cities, neighbors(cities), distances(paths), rewards(cities, dist),
+		        probability != null ? probability : probabilities(cities, dist));
+	}
+
+	/**
+	 * Creates a state space without a logist topology, e.g. to benchmark the
+	 * solver outside of a simulation. getCity returns null for such a state
+	 * space.
+	 *
+	 * @param neighbors
+	 *            the indices of the neighbors of every city
+	 * @param distance
+	 *            the shortest path distance between every pair of cities
+	 * @param reward
+	 *            the reward of a task between every pair of cities
+	 * @param probability
+	 *            the probability of every state once its city is reached,
+	 *            indexed like the states
+	 */
+	public StateSpace(int[][] neighbors, double[][] distance, double[][] reward, double[] probability) {
+		this(null, neighbors, distance, reward, probability);
+	}
+
+	private StateSpace(City[] cities, int[][] neighbors, double[][] distance, double[][] reward,
+	        double[] probability) {
+		super();
+		this.cities = cities;
+		nbCities = neighbors.length;
+		noTask = nbCities;
+		nbStates = nbCities * (nbCities + 1);
+
+		createActions(neighbors);
+		createRewards(distance, reward);
+		createTransitions(probability);
+		createPredecessors();
+	}
+
+	/**
+	 * shares the actions, rewards and predecessors of other, which never
+	 * change once created.
+	 */
+	private StateSpace(StateSpace other, double[] probability) {
+		super();
+		cities = other.cities;
+		nbCities = other.nbCities;
+		noTask = other.noTask;
+		nbStates = other.nbStates;
+		nbValidStates = other.nbValidStates;
+		actions = other.actions;
+		actionDistance = other.actionDistance;
+		actionReward = other.actionReward;
+		predecessors = other.predecessors;
+		predecessorActions = other.predecessorActions;
+
+		createTransitions(probability);
+	}
+
+	/**
+	 * @param probability
+	 *            the probability of every state once its city is reached,
+	 *            indexed like the states
+	 * @return a state space with the same states, actions and rewards as this
+	 *         one and the transitions of probability. Only the transitions
+	 *         are computed, so it is cheap to create one per update of the
+	 *         probabilities
+	 */
+	public StateSpace withProbabilities(double[] probability) {
+		return new StateSpace(this, probability);
+	}
+
+	private static City[] cities(ShortestPaths paths) {
+		City[] cities = new City[paths.size()];
+		for (int i = 0; i < cities.length; i++) {
+			cities[i] = paths.getCity(i);
+		}
+		return cities;
+	}
+
+	private static int[][] neighbors(City[] cities) {
+		int[][] neighbors = new int[cities.length][];
+		for (int current = 0; current < cities.length; current++) {
+			neighbors[current] = new int[cities[current].neighbors().size()];
+			int i = 0;
+			for (City neighb : cities[current].neighbors()) {
+				neighbors[current][i++] = neighb.id;
+			}
+		}
+		return neighbors;
+	}
+
+	private static double[][] distances(ShortestPaths paths) {
+		double[][] distance = new double[paths.size()][paths.size()];
+		for (int from = 0; from < distance.length; from++) {
+			for (int to = 0; to < distance.length; to++) {
+				distance[from][to] = paths.distance(from, to);
+			}
+		}
+		return distance;
+	}
+
+	private static double[][] rewards(City[] cities, TaskDistribution dist) {
+		double[][] reward = new double[cities.length][cities.length];
+		for (int from = 0; from < cities.length; from++) {
+			for (int to = 0; to < cities.length; to++) {
+				if (from != to) {
+					reward[from][to] = dist.reward(cities[from], cities[to]);
+				}
+			}
+		}
+		return reward;
+	}
+
+	private static double[] probabilities(City[] cities, TaskDistribution dist) {
+		int n = cities.length;
+		double[] probability = new double[n * (n + 1)];
+		for (int city = 0; city < n; city++) {
+			for (int dest = 0; dest <= n; dest++) {
+				if (dest != city) {
+					probability[city * (n + 1) + dest] = dist.probability(cities[city], dest == n ? null
+					        : cities[dest]);
+				}
+			}
+		}
+		return probability;
+	}
+
+	private void createActions(int[][] neighborsOf) {
+		actions = new int[nbStates][];
+		for (int current = 0; current < nbCities; current++) {
+			int[] neighbors = neighborsOf[current];
+			// without a task we can only move to a neighbor
+			actions[index(current, noTask)] = neighbors;
+
+			for (int dest = 0; dest < nbCities; dest++) {
+				if (dest != current) {
+					int[] a = new int[neighbors.length + 1];
+					int nbActions = 0;
+					a[nbActions++] = dest;
+					// it wouldnt make any sense to refuse a package to a
+					// neighbor if our aciton is going to that neighbor
+					for (int neighb : neighbors) {
+						if (neighb != dest) {
+							a[nbActions++] = neighb;
+						}
+					}
+					actions[index(current, dest)] = nbActions == a.length ? a : Arrays.copyOf(a, nbActions);
+				}
+			}
+		}
+		nbValidStates = nbCities * nbCities;
+	}
+
+	private void createRewards(double[][] distance, double[][] reward) {
+		actionDistance = new double[nbStates][];
+		actionReward = new double[nbStates][];
+		for (int s = 0; s < nbStates; s++) {
+			if (isValid(s)) {
+				int current = getCurrent(s);
+				actionDistance[s] = new double[actions[s].length];
+				actionReward[s] = new double[actions[s].length];
+				for (int a = 0; a < actions[s].length; a++) {
+					actionDistance[s][a] = distance[current][actions[s][a]];
+					if (isTakingPackage(s, a)) {
+						actionReward[s][a] = reward[current][actions[s][a]];
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Taking any action leads to the action's city, so the only successor
+	 * states with T(s, a, sp) > 0 are the states located in that city. We
+	 * only store those with a non-zero probability.
+	 *
+	 * @param probability
+	 */
+	private void createTransitions(double[] probability) {
+		successors = new int[nbCities][];
+		probabilities = new double[nbCities][];
+		stateProbability = new double[nbStates];
+		for (int city = 0; city < nbCities; city++) {
+			int[] s = new int[nbCities + 1];
+			double[] p = new double[nbCities + 1];
+			int nbSuccessors = 0;
+			for (int dest = 0; dest <= nbCities; dest++) {
+				if (dest != city) {
+					double prob = probability[index(city, dest)];
+					stateProbability[index(city, dest)] = prob;
+					if (prob > 0) {
+						s[nbSuccessors] = index(city, dest);
+						p[nbSuccessors] = prob;
+						nbSuccessors++;
+					}
+				}
+			}
+			successors[city] = Arrays.copyOf(s, nbSuccessors);
+			probabilities[city] = Arrays.copyOf(p, nbSuccessors);
+		}
+	}
+
+	private void createPredecessors() {
+		int[] nbPredecessors = new int[nbCities];
+		for (int s = 0; s < nbStates; s++) {
+			if (isValid(s)) {
+				for (int city : actions[s]) {
+					nbPredecessors[city]++;
+				}
+			}
+		}
+		predecessors = new int[nbCities][];
+		predecessorActions = new int[nbCities][];
+		for (int city = 0; city < nbCities; city++) {
+			predecessors[city] = new int[nbPredecessors[city]];
+			predecessorActions[city] = new int[nbPredecessors[city]];
+			nbPredecessors[city] = 0;
+		}
+		for (int s = 0; s < nbStates; s++) {
+			if (isValid(s)) {
+				for (int a = 0; a < actions[s].length; a++) {
+					int city = actions[s][a];
+					predecessors[city][nbPredecessors[city]] = s;
+					predecessorActions[city][nbPredecessors[city]] = a;
+					nbPredecessors[city]++;
+				}
+			}
+		}
+	}
+
+	public int index(int current, int destination) {
+		return current * (nbCities + 1) + destination;
+	}
+
+	/**
+	 * @param current
+	 * @param destination
+	 *            the delivery city of the available task or null if there is
+	 *            none
+	 * @return the index of the state
+	 */
+	public int index(City current, City destination) {
+		return index(current.id, destination == null ? noTask : destination.id);
+	}
+
+	/**
+	 * @return the city index of state s
+	 */
+	public int getCurrent(int s) {
+		return s / (nbCities + 1);
+	}
+
+	/**
+	 * @return the destination index of state s, nbCities if no task is
+	 *         available
+	 */
+	public int getDestination(int s) {
+		return s % (nbCities + 1);
+	}
+
+	public boolean hasTask(int s) {
+		return getDestination(s) != noTask;
+	}
+
+	/**
+	 * @return false for the unused slots where current == destination
+	 */
+	public boolean isValid(int s) {
+		return actions[s] != null;
+	}
+
+	/**
+	 * @return the city indices the actions of state s move to
+	 */
+	public int[] getActions(int s) {
+		return actions[s];
+	}
+
+	public boolean isTakingPackage(int s, int a) {
+		return a == 0 && hasTask(s);
+	}
+
+	/**
+	 * @return the distance driven by the actions of state s
+	 */
+	public double[] getActionDistance(int s) {
+		return actionDistance[s];
+	}
+
+	/**
+	 * @return the task reward earned by the actions of state s
+	 */
+	public double[] getActionReward(int s) {
+		return actionReward[s];
+	}
+
+	public int[] getSuccessors(int city) {
+		return successors[city];
+	}
+
+	public double[] getProbabilities(int city) {
+		return probabilities[city];
+	}
+
+	public double getProbability(int s) {
+		return stateProbability[s];
+	}
+
+	public int[] getPredecessors(int city) {
+		return predecessors[city];
+	}
+
+	/**
+	 * @return for each state of getPredecessors(city) the index of its action
+	 *         moving to city
+	 */
+	public int[] getPredecessorActions(int city) {
+		return predecessorActions[city];
+	}
+
+	/**
+	 * @return the logist city of index city, null if the state space was not
+	 *         created from a topology
+	 */
+	public City getCity(int city) {
+		return cities[city];
+	}
+
+	public int getNbCities() {
+		return nbCities;
+	}
+
+	public int getNbStates() {
+		return nbStates;
+	}
+
+	/**
+	 * @return the number of slots that correspond to a state
+	 */
+	public int getNbValidStates() {
+		return nbValidStates;
+	}
+}
@@ -0,0 +1,71 @@
+package model;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts the states the vehicles observe to estimate the real task
+ * distribution. The counts are atomic so that act() never waits.
+ */
+public class TaskStatistics {
+	private StateSpace stateSpace;
+	// number of times each state was observed, indexed like the states
+	private AtomicIntegerArray observations;
+	// number of observations per city
+	private AtomicIntegerArray visits;
+	private AtomicInteger nbObservations = new AtomicInteger();
+
+	public TaskStatistics(StateSpace stateSpace) {
+		super();
+		this.stateSpace = stateSpace;
+		observations = new AtomicIntegerArray(stateSpace.getNbStates());
+		visits = new AtomicIntegerArray(stateSpace.getNbCities());
+	}
+
+	/**
+	 * records that state s was observed.
+	 *
+	 * @param s
+	 */
+	public void observe(int s) {
+		observations.incrementAndGet(s);
+		visits.incrementAndGet(stateSpace.getCurrent(s));
+		nbObservations.incrementAndGet();
+	}
+
+	public int getNbObservations() {
+		return nbObservations.get();
+	}
+
+	/**
+	 * Estimates the probability of every state once its city is reached. The
+	 * declared probabilities of the state space count as priorWeight
+	 * observations, so the estimate of a rarely visited city stays close to
+	 * them and moves to the observed frequencies as visits accumulate.
+	 *
+	 * @param priorWeight
+	 * @return the probabilities indexed like the states
+	 */
+	public double[] probabilities(double priorWeight) {
+		// the visits are read before the state counts, so an observation
+		// made in between only shows up in a state count. The estimate of
+		// its city is then off by that observation until the next update
+		int[] visits = new int[stateSpace.getNbCities()];
+		for (int city = 0; city < visits.length; city++) {
+			visits[city] = this.visits.get(city);
+		}
+		boolean observed = nbObservations.get() > 0;
+
+		double[] probability = new double[stateSpace.getNbStates()];
+		for (int s = 0; s < probability.length; s++) {
+			if (!observed) {
+				probability[s] = stateSpace.getProbability(s);
+			} else if (stateSpace.isValid(s)) {
+				int city = stateSpace.getCurrent(s);
+				probability[s] = (observations.get(s) + priorWeight * stateSpace.getProbability(s))
+				        / (visits[city] + priorWeight);
+			}
+		}
+		return probability;
+	}
+}
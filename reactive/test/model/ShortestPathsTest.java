@@ -0,0 +1,59 @@
+package model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import logist.config.Parsers;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+import org.junit.Test;
+
+/**
+ * Checks ShortestPaths against City.distanceTo and City.pathTo on every
+ * topology of config/topology. Run it from the reactive directory.
+ */
+public class ShortestPathsTest {
+
+	@Test
+	public void matchesTheTopology() throws Exception {
+		File[] files = new File("config/topology").listFiles();
+		assertTrue("no topology in config/topology", files != null && files.length > 0);
+		for (File file : files) {
+			if (file.getName().endsWith(".xml")) {
+				check(Parsers.parseTopology(file.getPath()));
+			}
+		}
+	}
+
+	private void check(Topology topology) {
+		ShortestPaths paths = new ShortestPaths(topology);
+		assertEquals(topology.size(), paths.size());
+		for (City from : topology) {
+			for (City to : topology) {
+				assertEquals(from + " to " + to, from.distanceTo(to), paths.distance(from, to), 1e-9);
+				assertEquals(from.distanceTo(to), paths.distance(from.id, to.id), 1e-9);
+
+				// following the next hops must reach to within size() moves
+				// and drive the same path as pathTo
+				List<City> path = new ArrayList<City>();
+				double length = 0;
+				City city = from;
+				while (city != to) {
+					assertTrue(from + " to " + to + " does not end", path.size() < paths.size());
+					City next = paths.nextHop(city, to);
+					assertEquals(next.id, paths.nextHop(city.id, to.id));
+					length += city.distanceTo(next);
+					path.add(next);
+					city = next;
+				}
+				assertEquals(from == to ? new ArrayList<City>() : from.pathTo(to), path);
+				assertEquals(paths.distance(from, to), length, 1e-9);
+			}
+		}
+	}
+}